@@ -2,5 +2,10 @@ package nl.topicus.spanner.converter;
 
 public enum ConvertMode
 {
-	SkipAll, SkipExisting, DropAndRecreate, ThrowExceptionIfExists;
+	SkipAll, SkipExisting, DropAndRecreate, ThrowExceptionIfExists,
+	/**
+	 * Resume an interrupted data copy from the last checkpoint. Only
+	 * supported for data conversion.
+	 */
+	Resume;
 }
\ No newline at end of file
@@ -7,9 +7,13 @@ import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.IndexTiming;
 import nl.topicus.spanner.converter.data.DataCopier;
 import nl.topicus.spanner.converter.ddl.IndexConverter;
 import nl.topicus.spanner.converter.ddl.TableConverter;
+import nl.topicus.spanner.converter.util.CloudSpannerClients;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaSnapshot;
 
 public class Converter
 {
@@ -59,7 +63,7 @@ public class Converter
 		{
 			convert(source, destination, config);
 		}
-		catch (SQLException e)
+		catch (SQLException | IOException e)
 		{
 			System.err.println("Error converting database " + e.getMessage());
 			e.printStackTrace();
@@ -67,19 +71,56 @@ public class Converter
 	}
 
 	private static void convert(Connection source, Connection destination, ConverterConfiguration config)
-			throws SQLException
+			throws SQLException, IOException
 	{
-		if (config.getTableConvertMode() != ConvertMode.SkipAll)
+		SchemaSnapshot schemaSnapshot = SchemaSnapshot.open(config);
+		boolean convertTables = config.getTableConvertMode() != ConvertMode.SkipAll;
+		boolean deferIndices = config.getIndexTiming() == IndexTiming.AfterDataCopy;
+		SchemaCatalog sourceCatalog = null;
+		if (convertTables)
 		{
-			TableConverter tableConverter = new TableConverter(source, destination, config);
+			sourceCatalog = schemaSnapshot.getCatalog(source, config.getUrlSource(), config.getSourceDatabaseType(),
+					config.getCatalog(), config.getSchema());
+			TableConverter tableConverter = new TableConverter(destination, config, sourceCatalog,
+					getDestinationCatalog(destination, config, schemaSnapshot));
 			tableConverter.convert(true);
 
-			IndexConverter indexConverter = new IndexConverter(source, destination, config);
-			indexConverter.convert(true);
+			// The destination catalog is loaded again, as converting the tables
+			// may have dropped and created tables and their indices
+			IndexConverter indexConverter = new IndexConverter(destination, config, sourceCatalog,
+					getDestinationCatalog(destination, config, schemaSnapshot));
+			if (deferIndices)
+				indexConverter.dropExistingIndices();
+			else
+				indexConverter.convert(true);
 		}
 
-		DataCopier dataConverter = new DataCopier(config);
+		// The data copier loads the destination catalog after the indices have
+		// been converted, so the batch sizes only count the indices that exist
+		// during the copy
+		DataCopier dataConverter = new DataCopier(config, schemaSnapshot);
 		dataConverter.convert();
+
+		if (convertTables && deferIndices)
+		{
+			try
+			{
+				IndexConverter indexConverter = new IndexConverter(destination, config, sourceCatalog,
+						getDestinationCatalog(destination, config, schemaSnapshot));
+				indexConverter.convert(true);
+			}
+			finally
+			{
+				CloudSpannerClients.closeAll();
+			}
+		}
+	}
+
+	private static SchemaCatalog getDestinationCatalog(Connection destination, ConverterConfiguration config,
+			SchemaSnapshot schemaSnapshot) throws SQLException
+	{
+		return schemaSnapshot.getCatalog(destination, config.getUrlDestination(), config.getDestinationDatabaseType(),
+				config.getCatalog(), config.getSchema());
 	}
 
 	private static boolean confirm(String msg)
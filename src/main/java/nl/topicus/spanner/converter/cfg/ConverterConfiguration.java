@@ -4,7 +4,9 @@ import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 
@@ -39,6 +41,35 @@ public class ConverterConfiguration
 			{
 				return schema != null && schema.equalsIgnoreCase("INFORMATION_SCHEMA");
 			}
+
+			@Override
+			public boolean supportsRowValueComparison()
+			{
+				return false;
+			}
+
+			@Override
+			public String getSchemaFingerprintQuery(String schema)
+			{
+				// Cloud Spanner databases only have the default schema
+				return "SELECT CONCAT("
+						+ "(SELECT CONCAT(CAST(COUNT(*) AS STRING), ':', CAST(IFNULL(BIT_XOR(FARM_FINGERPRINT(CONCAT("
+						+ "TABLE_NAME, '.', COLUMN_NAME, ':', SPANNER_TYPE, ':', IS_NULLABLE, ':', "
+						+ "CAST(ORDINAL_POSITION AS STRING)))), 0) AS STRING)) "
+						+ "FROM INFORMATION_SCHEMA.COLUMNS WHERE TABLE_SCHEMA = ''), '/', "
+						+ "(SELECT CONCAT(CAST(COUNT(*) AS STRING), ':', CAST(IFNULL(BIT_XOR(FARM_FINGERPRINT(CONCAT("
+						+ "TABLE_NAME, '.', INDEX_NAME, '.', COLUMN_NAME, ':', IFNULL(COLUMN_ORDERING, ''), ':', "
+						+ "IFNULL(CAST(ORDINAL_POSITION AS STRING), '')))), 0) AS STRING)) "
+						+ "FROM INFORMATION_SCHEMA.INDEX_COLUMNS WHERE TABLE_SCHEMA = ''))";
+			}
+
+			@Override
+			public String getInsertOrUpdateClause(List<String> primaryKeyColumns, List<String> columns)
+			{
+				// The JDBC driver turns these statements into InsertOrUpdate
+				// mutations
+				return " ON DUPLICATE KEY UPDATE";
+			}
 		},
 		PostgreSQL
 		{
@@ -66,6 +97,47 @@ public class ConverterConfiguration
 				return schema != null
 						&& (schema.equalsIgnoreCase("INFORMATION_SCHEMA") || schema.toUpperCase().startsWith("PG_"));
 			}
+
+			@Override
+			public boolean supportsRowValueComparison()
+			{
+				return true;
+			}
+
+			@Override
+			public String getSchemaFingerprintQuery(String schema)
+			{
+				// The catalog is the database of the connection. The schema is
+				// matched as a pattern, like DatabaseMetaData.getTables does.
+				String schemaClause = schema == null ? ""
+						: " AND n.nspname LIKE '" + schema.replace("'", "''") + "'";
+				return "SELECT md5(COALESCE(string_agg(CAST(a.attrelid AS regclass) || '.' || a.attname || ':' "
+						+ "|| format_type(a.atttypid, a.atttypmod) || ':' || a.attnotnull || ':' || a.attnum, ',' "
+						+ "ORDER BY a.attrelid, a.attnum), '')) || md5(COALESCE((SELECT string_agg("
+						+ "CAST(i.indexrelid AS regclass) || ':' || CAST(i.indrelid AS regclass) || ':' "
+						+ "|| CAST(i.indkey AS text) || ':' || i.indisunique || ':' || i.indisprimary, ',' "
+						+ "ORDER BY i.indexrelid) FROM pg_index i JOIN pg_class t ON t.oid = i.indrelid "
+						+ "JOIN pg_namespace n ON n.oid = t.relnamespace "
+						+ "WHERE n.nspname <> 'information_schema' AND n.nspname NOT LIKE 'pg\\_%'" + schemaClause
+						+ "), '')) "
+						+ "FROM pg_attribute a JOIN pg_class c ON c.oid = a.attrelid "
+						+ "JOIN pg_namespace n ON n.oid = c.relnamespace "
+						+ "WHERE c.relkind = 'r' AND a.attnum > 0 AND NOT a.attisdropped "
+						+ "AND n.nspname <> 'information_schema' AND n.nspname NOT LIKE 'pg\\_%'" + schemaClause;
+			}
+
+			@Override
+			public String getInsertOrUpdateClause(List<String> primaryKeyColumns, List<String> columns)
+			{
+				List<String> updates = new ArrayList<>(columns.size());
+				for (String column : columns)
+				{
+					if (!primaryKeyColumns.contains(column))
+						updates.add(column + " = EXCLUDED." + column);
+				}
+				String action = updates.isEmpty() ? "DO NOTHING" : "DO UPDATE SET " + String.join(", ", updates);
+				return " ON CONFLICT (" + String.join(", ", primaryKeyColumns) + ") " + action;
+			}
 		};
 
 		public abstract boolean isType(String url);
@@ -76,6 +148,29 @@ public class ConverterConfiguration
 
 		public abstract boolean isSystemSchema(String schema);
 
+		/**
+		 * @return true if the database supports comparisons of the form (a, b)
+		 *         &gt; (?, ?)
+		 */
+		public abstract boolean supportsRowValueComparison();
+
+		/**
+		 * @param schema
+		 *            The schema name pattern of the schema that is converted,
+		 *            or null if all schemas are converted
+		 * @return A query that returns one value that changes whenever the
+		 *         tables, columns or indexes of the schema change. The query is
+		 *         much cheaper than discovering the schema itself.
+		 */
+		public abstract String getSchemaFingerprintQuery(String schema);
+
+		/**
+		 * @return The clause to append to an INSERT statement to update the
+		 *         existing record instead of failing when a record with the same
+		 *         primary key already exists
+		 */
+		public abstract String getInsertOrUpdateClause(List<String> primaryKeyColumns, List<String> columns);
+
 		public static DatabaseType getType(String url)
 		{
 			for (DatabaseType type : DatabaseType.values())
@@ -85,18 +180,101 @@ public class ConverterConfiguration
 		}
 	}
 
+	/**
+	 * The way records are written to the destination database
+	 */
+	public static enum WriterType
+	{
+		/**
+		 * INSERT statements over JDBC
+		 */
+		Jdbc,
+		/**
+		 * Cloud Spanner mutations that are written directly through the client
+		 * library. Only supported for Cloud Spanner destinations.
+		 */
+		Mutation,
+		/**
+		 * COPY ... FROM STDIN statements. Only supported for PostgreSQL
+		 * destinations.
+		 */
+		Copy;
+	}
+
+	/**
+	 * The moment at which the secondary indices of the tables are created
+	 */
+	public static enum IndexTiming
+	{
+		/**
+		 * Create the indices right after the tables, before the data is
+		 * copied. Each copied record also writes the entries of the indices.
+		 */
+		BeforeDataCopy,
+		/**
+		 * Create the indices after the data has been copied, and let the
+		 * destination database fill them. Existing indices that are dropped
+		 * and created again are dropped before the data is copied.
+		 */
+		AfterDataCopy;
+	}
+
+	/**
+	 * What happens when a copied record already exists in the destination
+	 * table
+	 */
+	public static enum WriteMode
+	{
+		/**
+		 * Insert the records. Writing a batch fails if one of its records
+		 * already exists.
+		 */
+		Insert,
+		/**
+		 * Insert the records, and update the records that already exist.
+		 * Writing the same records again has no further effect, so batches,
+		 * key ranges and whole tables can safely be copied again.
+		 */
+		InsertOrUpdate;
+	}
+
 	private final Properties properties = new Properties();
 
 	private ConvertMode tableConvertMode;
 
 	private ConvertMode dataConvertMode;
 
+	private IndexTiming indexTiming;
+
 	private Integer numberOfTableWorkers;
 
 	private Integer batchSize;
 
 	private Integer maxNumberOfWorkers;
 
+	/**
+	 * The maximum number of part workers of all tables together that may run
+	 * in parallel
+	 */
+	private Integer maxConcurrentWorkers;
+
+	/**
+	 * The maximum number of database connections that the part workers of all
+	 * tables together may hold
+	 */
+	private Integer maxConnections;
+
+	/**
+	 * Adapt the batch size of each table while copying, based on the actual
+	 * size of the records and the commit latency
+	 */
+	private Boolean useAdaptiveBatchSize;
+
+	/**
+	 * The maximum number of mutations in one commit to Cloud Spanner
+	 */
+	private Integer maxMutationsPerCommit;
+
 	/**
 	 * Maximum time to wait for a table worker to finish in minutes
 	 */
@@ -107,8 +285,83 @@ public class ConverterConfiguration
 	 */
 	private Integer uploadWorkerMaxWaitInMinutes;
 
+	/**
+	 * The maximum number of times a batch that failed with a transient error
+	 * is written again
+	 */
+	private Integer maxRetries;
+
+	private Long retryInitialDelayMillis;
+
 	private Boolean useJdbcBatching;
 
+	private WriterType writerType;
+
+	private WriteMode writeMode;
+
+	/**
+	 * The file that the progress of the data copy is written to, so that an
+	 * interrupted copy can be resumed
+	 */
+	private String checkpointFile;
+
+	/**
+	 * Start a new checkpoint journal even if the existing journal is of an
+	 * interrupted copy
+	 */
+	private Boolean overwriteCheckpoint;
+
+	/**
+	 * Read the next batch of records by seeking past the last primary key that
+	 * was read instead of using LIMIT/OFFSET
+	 */
+	private Boolean useKeysetPagination;
+
+	/**
+	 * Split tables into primary key ranges instead of row offsets when
+	 * assigning records to upload workers
+	 */
+	private Boolean useKeyRangePartitioning;
+
+	private Boolean useWorkStealing;
+
+	private Boolean useStreamingCursor;
+
+	private Integer fetchSize;
+
+	private Boolean useBinaryCopy;
+
+	private Boolean useSnapshot;
+
+	private Integer maxPoolSize;
+
+	private Integer connectionWaitTimeoutInSeconds;
+
+	/**
+	 * The maximum number of DDL statements in one schema update on Cloud
+	 * Spanner
+	 */
+	private Integer ddlBatchSize;
+
+	/**
+	 * The file that the schema catalogs and table statistics are stored in, so
+	 * that later runs against an unchanged schema do not need to discover it
+	 * again
+	 */
+	private String schemaSnapshotFile;
+
+	/**
+	 * The maximum number of bytes that an upload worker may read ahead of its
+	 * writers
+	 */
+	private Long pipelineBufferSize;
+
+	/**
+	 * The number of writers that each upload worker uses to write the records
+	 * that it reads
+	 */
+	private Integer numberOfWritersPerWorker;
+
 	private final String urlSource;
 
 	private final String urlDestination;
@@ -161,16 +414,35 @@ public class ConverterConfiguration
 		{
 			tableConvertMode = ConvertMode.valueOf(ConvertMode.class,
 					properties.getProperty("TableConverter.convertMode", ConvertMode.SkipExisting.name()));
+			if (tableConvertMode == ConvertMode.Resume)
+				throw new IllegalArgumentException("Convert mode " + tableConvertMode + " is not supported for tables");
 		}
 		return tableConvertMode;
 	}
 
+	public IndexTiming getIndexTiming()
+	{
+		if (indexTiming == null)
+		{
+			indexTiming = IndexTiming.valueOf(IndexTiming.class,
+					properties.getProperty("TableConverter.indexTiming", IndexTiming.BeforeDataCopy.name()));
+		}
+		return indexTiming;
+	}
+
 	public ConvertMode getDataConvertMode()
 	{
 		if (dataConvertMode == null)
 		{
 			dataConvertMode = ConvertMode.valueOf(ConvertMode.class,
 					properties.getProperty("DataConverter.convertMode", ConvertMode.SkipExisting.name()));
+			// Only key range workers write checkpoints. Other workers would copy
+			// the records of an interrupted table again, which only succeeds if
+			// existing records are updated.
+			if (dataConvertMode == ConvertMode.Resume && !isUseKeyRangePartitioning()
+					&& getWriteMode() != WriteMode.InsertOrUpdate)
+				throw new IllegalArgumentException("Convert mode " + dataConvertMode
+						+ " requires key range partitioning or write mode " + WriteMode.InsertOrUpdate);
 		}
 		return dataConvertMode;
 	}
@@ -202,6 +474,45 @@ public class ConverterConfiguration
 		return maxNumberOfWorkers;
 	}
 
+	public Integer getMaxConcurrentWorkers()
+	{
+		if (maxConcurrentWorkers == null)
+		{
+			maxConcurrentWorkers = Integer
+					.valueOf(properties.getProperty("DataConverter.maxConcurrentWorkers", "100"));
+		}
+		return maxConcurrentWorkers;
+	}
+
+	public Integer getMaxConnections()
+	{
+		if (maxConnections == null)
+		{
+			maxConnections = Integer.valueOf(properties.getProperty("DataConverter.maxConnections", "200"));
+		}
+		return maxConnections;
+	}
+
+	public boolean isUseAdaptiveBatchSize()
+	{
+		if (useAdaptiveBatchSize == null)
+		{
+			useAdaptiveBatchSize = Boolean
+					.valueOf(properties.getProperty("DataConverter.useAdaptiveBatchSize", "true"));
+		}
+		return useAdaptiveBatchSize.booleanValue();
+	}
+
+	public Integer getMaxMutationsPerCommit()
+	{
+		if (maxMutationsPerCommit == null)
+		{
+			maxMutationsPerCommit = Integer
+					.valueOf(properties.getProperty("DataConverter.maxMutationsPerCommit", "20000"));
+		}
+		return maxMutationsPerCommit;
+	}
+
 	public Integer getTableWorkerMaxWaitInMinutes()
 	{
 		if (tableWorkerMaxWaitInMinutes == null)
@@ -222,6 +533,29 @@ public class ConverterConfiguration
 		return uploadWorkerMaxWaitInMinutes;
 	}
 
+	public int getMaxRetries()
+	{
+		if (maxRetries == null)
+		{
+			maxRetries = Integer.valueOf(properties.getProperty("DataConverter.maxRetries", "5"));
+		}
+		return maxRetries.intValue();
+	}
+
+	/**
+	 * @return The maximum delay before the first retry of a batch. The maximum
+	 *         delay doubles with each next retry of the same batch.
+	 */
+	public long getRetryInitialDelayMillis()
+	{
+		if (retryInitialDelayMillis == null)
+		{
+			retryInitialDelayMillis = Long
+					.valueOf(properties.getProperty("DataConverter.retryInitialDelayMillis", "500"));
+		}
+		return retryInitialDelayMillis.longValue();
+	}
+
 	public boolean isUseJdbcBatching()
 	{
 		if (useJdbcBatching == null)
@@ -231,6 +565,221 @@ public class ConverterConfiguration
 		return useJdbcBatching.booleanValue();
 	}
 
+	public boolean isUseKeysetPagination()
+	{
+		if (useKeysetPagination == null)
+		{
+			useKeysetPagination = Boolean
+					.valueOf(properties.getProperty("DataConverter.useKeysetPagination", "true"));
+		}
+		return useKeysetPagination.booleanValue();
+	}
+
+	/**
+	 * Key range partitioning requires keyset pagination, and is therefore only
+	 * used when keyset pagination is also enabled
+	 */
+	public boolean isUseKeyRangePartitioning()
+	{
+		if (useKeyRangePartitioning == null)
+		{
+			useKeyRangePartitioning = Boolean
+					.valueOf(properties.getProperty("DataConverter.useKeyRangePartitioning", "true"));
+		}
+		return useKeyRangePartitioning.booleanValue() && isUseKeysetPagination();
+	}
+
+	/**
+	 * Work stealing splits the key ranges of busy upload workers, and is
+	 * therefore only used when key range partitioning is also enabled. A
+	 * streaming cursor or COPY statement cannot be shortened while it is being
+	 * read, so work stealing is not used together with these.
+	 */
+	public boolean isUseWorkStealing()
+	{
+		if (useWorkStealing == null)
+		{
+			useWorkStealing = Boolean.valueOf(properties.getProperty("DataConverter.useWorkStealing", "true"));
+		}
+		return useWorkStealing.booleanValue() && isUseKeyRangePartitioning() && !isUseStreamingCursor()
+				&& !isUseBinaryCopy();
+	}
+
+	/**
+	 * Streaming cursors read the records of each upload worker with one query
+	 * on a server side cursor instead of one query per batch. Streaming
+	 * cursors are only supported for PostgreSQL sources.
+	 */
+	public boolean isUseStreamingCursor()
+	{
+		if (useStreamingCursor == null)
+		{
+			useStreamingCursor = Boolean
+					.valueOf(properties.getProperty("DataConverter.useStreamingCursor", "false"));
+		}
+		return useStreamingCursor.booleanValue() && getSourceDatabaseType() == DatabaseType.PostgreSQL;
+	}
+
+	/**
+	 * Binary COPY reads the records of each upload worker with one COPY ... TO
+	 * STDOUT (FORMAT binary) statement. Binary COPY is only supported for
+	 * PostgreSQL sources, and takes precedence over streaming cursors.
+	 */
+	public boolean isUseBinaryCopy()
+	{
+		if (useBinaryCopy == null)
+		{
+			useBinaryCopy = Boolean.valueOf(properties.getProperty("DataConverter.useBinaryCopy", "false"));
+		}
+		return useBinaryCopy.booleanValue() && getSourceDatabaseType() == DatabaseType.PostgreSQL;
+	}
+
+	/**
+	 * In snapshot mode, all upload workers read from one snapshot of the source
+	 * database that is exported with pg_export_snapshot(). Snapshot mode is
+	 * only supported for PostgreSQL sources.
+	 */
+	public boolean isUseSnapshot()
+	{
+		if (useSnapshot == null)
+		{
+			useSnapshot = Boolean.valueOf(properties.getProperty("DataConverter.useSnapshot", "false"));
+		}
+		return useSnapshot.booleanValue() && getSourceDatabaseType() == DatabaseType.PostgreSQL;
+	}
+
+	/**
+	 * @return The maximum number of connections in the connection pool of the
+	 *         source database and in that of the destination database. Defaults
+	 *         to the maximum number of connections of the upload workers.
+	 */
+	public int getMaxPoolSize()
+	{
+		if (maxPoolSize == null)
+		{
+			maxPoolSize = Integer.valueOf(
+					properties.getProperty("DataConverter.maxPoolSize", String.valueOf(getMaxConnections())));
+		}
+		return maxPoolSize.intValue();
+	}
+
+	/**
+	 * @return The maximum number of seconds that a worker waits for a
+	 *         connection when all connections of a pool are in use
+	 */
+	public int getConnectionWaitTimeoutInSeconds()
+	{
+		if (connectionWaitTimeoutInSeconds == null)
+		{
+			connectionWaitTimeoutInSeconds = Integer
+					.valueOf(properties.getProperty("DataConverter.connectionWaitTimeoutInSeconds", "600"));
+		}
+		return connectionWaitTimeoutInSeconds.intValue();
+	}
+
+	/**
+	 * @return The maximum number of DDL statements that are submitted to Cloud
+	 *         Spanner in one schema update
+	 */
+	public int getDdlBatchSize()
+	{
+		if (ddlBatchSize == null)
+		{
+			ddlBatchSize = Integer.valueOf(properties.getProperty("TableConverter.ddlBatchSize", "50"));
+		}
+		return ddlBatchSize.intValue();
+	}
+
+	/**
+	 * @return The number of records that is fetched from the server at a time
+	 *         by a streaming cursor
+	 */
+	public int getFetchSize()
+	{
+		if (fetchSize == null)
+		{
+			fetchSize = Integer.valueOf(properties.getProperty("DataConverter.fetchSize", "10000"));
+		}
+		return fetchSize.intValue();
+	}
+
+	public long getPipelineBufferSize()
+	{
+		if (pipelineBufferSize == null)
+		{
+			pipelineBufferSize = Long.valueOf(properties.getProperty("DataConverter.pipelineBufferSize", "16777216"));
+		}
+		return pipelineBufferSize.longValue();
+	}
+
+	public int getNumberOfWritersPerWorker()
+	{
+		if (numberOfWritersPerWorker == null)
+		{
+			numberOfWritersPerWorker = Integer
+					.valueOf(properties.getProperty("DataConverter.numberOfWritersPerWorker", "1"));
+		}
+		return numberOfWritersPerWorker.intValue();
+	}
+
+	public WriterType getWriterType()
+	{
+		if (writerType == null)
+		{
+			writerType = WriterType.valueOf(WriterType.class,
+					properties.getProperty("DataConverter.writerType", WriterType.Jdbc.name()));
+			if (writerType == WriterType.Mutation && getDestinationDatabaseType() != DatabaseType.CloudSpanner)
+				throw new IllegalArgumentException("Writer type " + writerType
+						+ " is only supported for Cloud Spanner destination databases");
+			if (writerType == WriterType.Copy && getDestinationDatabaseType() != DatabaseType.PostgreSQL)
+				throw new IllegalArgumentException(
+						"Writer type " + writerType + " is only supported for PostgreSQL destination databases");
+		}
+		return writerType;
+	}
+
+	public WriteMode getWriteMode()
+	{
+		if (writeMode == null)
+		{
+			writeMode = WriteMode.valueOf(WriteMode.class,
+					properties.getProperty("DataConverter.writeMode", WriteMode.Insert.name()));
+		}
+		return writeMode;
+	}
+
+	public String getCheckpointFile()
+	{
+		if (checkpointFile == null)
+		{
+			checkpointFile = properties.getProperty("DataConverter.checkpointFile", "converter.checkpoint");
+		}
+		return checkpointFile;
+	}
+
+	public boolean isOverwriteCheckpoint()
+	{
+		if (overwriteCheckpoint == null)
+		{
+			overwriteCheckpoint = Boolean
+					.valueOf(properties.getProperty("DataConverter.overwriteCheckpoint", "false"));
+		}
+		return overwriteCheckpoint.booleanValue();
+	}
+
+	/**
+	 * @return The file to store the discovered schema in, or null if the
+	 *         schema should be discovered in each run
+	 */
+	public String getSchemaSnapshotFile()
+	{
+		if (schemaSnapshotFile == null)
+		{
+			schemaSnapshotFile = properties.getProperty("schemaSnapshotFile", "");
+		}
+		return schemaSnapshotFile.isEmpty() ? null : schemaSnapshotFile;
+	}
+
 	public String getCatalog()
 	{
 		if (catalog == null)
@@ -0,0 +1,41 @@
+package nl.topicus.spanner.converter.data;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+
+/**
+ * Writer stage of an upload worker. A writer writes batches of records to the
+ * destination table and commits each batch. Each writer uses its own
+ * connection to the destination database, and is only used by one thread at a
+ * time.
+ */
+abstract class AbstractBatchWriter implements AutoCloseable
+{
+	protected final ConverterConfiguration config;
+
+	protected final String table;
+
+	protected final Columns columns;
+
+	AbstractBatchWriter(ConverterConfiguration config, String table, Columns columns)
+	{
+		this.config = config;
+		this.table = table;
+		this.columns = columns;
+	}
+
+	/**
+	 * Writes and commits the given batch
+	 */
+	abstract void write(RowBatch batch) throws Exception;
+
+	/**
+	 * Discards the uncommitted part of a batch that could not be written, so
+	 * that the batch can be written again. Writers that write each batch in
+	 * one atomic call have nothing to discard.
+	 */
+	void reset() throws Exception
+	{
+		// nothing to discard
+	}
+
+}
@@ -1,6 +1,7 @@
 package nl.topicus.spanner.converter.data;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
 
@@ -12,6 +13,18 @@ public abstract class AbstractTablePartWorker implements Callable<ConversionResu
 
 	protected final long totalRecordCount;
 
+	/**
+	 * The shared executor on which the worker runs its pipeline stages,
+	 * besides the thread that runs the worker itself
+	 */
+	private ExecutorService stageExecutor;
+
+	/**
+	 * The time at which the worker started running, or 0 if it has not
+	 * started yet
+	 */
+	private volatile long startTime;
+
 	AbstractTablePartWorker(ConverterConfiguration config, String table, long totalRecordCount)
 	{
 		this.config = config;
@@ -23,7 +36,7 @@ public abstract class AbstractTablePartWorker implements Callable<ConversionResu
 	public ConversionResult call() throws Exception
 	{
 		Exception exception = null;
-		long startTime = System.currentTimeMillis();
+		startTime = System.currentTimeMillis();
 		try
 		{
 			run();
@@ -33,11 +46,64 @@ public abstract class AbstractTablePartWorker implements Callable<ConversionResu
 			exception = e;
 		}
 		long endTime = System.currentTimeMillis();
-		return new ConversionResult(totalRecordCount, getByteCount(), startTime, endTime, exception);
+		return new ConversionResult(getRecordCount(), getByteCount(), getRetryCount(), startTime, endTime,
+				exception);
 	}
 
 	protected abstract void run() throws Exception;
 
+	long getStartTime()
+	{
+		return startTime;
+	}
+
+	void setStageExecutor(ExecutorService stageExecutor)
+	{
+		this.stageExecutor = stageExecutor;
+	}
+
+	protected ExecutorService getStageExecutor()
+	{
+		return stageExecutor;
+	}
+
+	/**
+	 * @return The number of records that were processed by this worker.
+	 *         Defaults to the number of records that were assigned to the
+	 *         worker.
+	 */
+	protected long getRecordCount()
+	{
+		return totalRecordCount;
+	}
+
 	protected abstract long getByteCount();
 
+	/**
+	 * @return The number of times this worker wrote a batch again after a
+	 *         transient error
+	 */
+	protected long getRetryCount()
+	{
+		return 0L;
+	}
+
+	/**
+	 * @return The estimated number of records this worker will process, used
+	 *         to plan the order in which the workers are started
+	 */
+	long getEstimatedRecordCount()
+	{
+		return totalRecordCount;
+	}
+
+	/**
+	 * @return The number of database connections this worker holds while it
+	 *         is running
+	 */
+	protected int getRequiredConnections()
+	{
+		return 1;
+	}
+
 }
@@ -1,20 +1,22 @@
 package nl.topicus.spanner.converter.data;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
 import nl.topicus.spanner.converter.util.ConverterUtils;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
 
-public abstract class AbstractTableWorker implements Callable<ConversionResult>
+public abstract class AbstractTableWorker
 {
 	private static final Logger log = Logger.getLogger(AbstractTableWorker.class.getName());
 
@@ -31,63 +33,113 @@ public abstract class AbstractTableWorker implements Callable<ConversionResult>
 
 	protected final ConverterUtils converterUtils;
 
-	private int numberOfWorkers;
-
-	private Exception exception;
+	/**
+	 * The schema catalog of the destination database
+	 */
+	protected final SchemaCatalog schemaCatalog;
 
 	private long startTime;
 
 	private long endTime;
 
-	private List<? extends Callable<ConversionResult>> workers;
+	private List<? extends AbstractTablePartWorker> workers;
 
-	private ExecutorService service;
+	private final List<AbstractTablePartWorker> submittedWorkers = new ArrayList<>();
 
-	private List<Future<ConversionResult>> futures;
+	private final List<Future<ConversionResult>> futures = new ArrayList<>();
 
-	AbstractTableWorker(String table, ConverterConfiguration config)
+	AbstractTableWorker(String table, ConverterConfiguration config, SchemaCatalog schemaCatalog)
 	{
 		this.table = table;
 		this.config = config;
+		this.schemaCatalog = schemaCatalog;
 		this.converterUtils = new ConverterUtils(config);
 	}
 
-	public void prepare(Connection source, Connection destination) throws SQLException
+	public void prepare(Connection source, Connection destination) throws SQLException, IOException
 	{
 		status = Status.PREPARING;
 		workers = prepareWorkers(source, destination);
-		numberOfWorkers = workers.size();
 		status = Status.PREPARED;
 	}
 
 	protected abstract List<? extends AbstractTablePartWorker> prepareWorkers(Connection source, Connection destination)
-			throws SQLException;
+			throws SQLException, IOException;
 
 	public abstract long getTotalRecordCount();
 
-	@Override
-	public ConversionResult call() throws Exception
+	/**
+	 * @return The estimated number of bytes of one record of this table. This
+	 *         is used to weigh the part workers of different tables against
+	 *         each other when planning the order in which they are started.
+	 *         Defaults to 1, which weighs the part workers by their number of
+	 *         records only.
+	 */
+	protected long getEstimatedBytesPerRecord()
 	{
-		status = Status.RUNNING;
-		service = Executors.newFixedThreadPool(numberOfWorkers);
-		futures = new ArrayList<>(workers.size());
-		startTime = System.currentTimeMillis();
-		for (Callable<ConversionResult> worker : workers)
-		{
-			futures.add(service.submit(worker));
-		}
-		service.shutdown();
-		try
-		{
-			service.awaitTermination(config.getTableWorkerMaxWaitInMinutes(), TimeUnit.MINUTES);
-		}
-		catch (InterruptedException e)
+		return 1L;
+	}
+
+	/**
+	 * @return The part workers of this table, or an empty list if the table
+	 *         has not been prepared successfully
+	 */
+	List<? extends AbstractTablePartWorker> getWorkers()
+	{
+		if (workers == null)
+			return Collections.emptyList();
+		return workers;
+	}
+
+	/**
+	 * Submits one of the part workers of this table to the given scheduler
+	 */
+	void submit(WorkScheduler scheduler, AbstractTablePartWorker worker)
+	{
+		if (futures.isEmpty())
+			status = Status.RUNNING;
+		submittedWorkers.add(worker);
+		futures.add(scheduler.submit(worker));
+	}
+
+	/**
+	 * Collects the results of the part workers of this table. Should be called
+	 * after the scheduler has finished. Part workers that have not finished
+	 * by then are cancelled.
+	 *
+	 * @return The combined result of all part workers of this table
+	 */
+	ConversionResult collectResult()
+	{
+		Exception exception = null;
+		// The table started when its first part worker started running, so
+		// that the time the part workers waited in the queue of the scheduler
+		// is not counted
+		startTime = Long.MAX_VALUE;
+		for (AbstractTablePartWorker worker : submittedWorkers)
+			if (worker.getStartTime() > 0L)
+				startTime = Math.min(startTime, worker.getStartTime());
+		if (startTime == Long.MAX_VALUE)
+			startTime = System.currentTimeMillis();
+		endTime = startTime;
+		for (Future<ConversionResult> future : futures)
 		{
-			service.shutdownNow();
-			log.severe("Error while waiting for upload workers to finish: " + e.getMessage());
-			exception = e;
+			if (!future.isDone())
+			{
+				future.cancel(true);
+				exception = new TimeoutException("Worker for table " + table + " did not finish in time");
+				continue;
+			}
+			try
+			{
+				endTime = Math.max(endTime, future.get().getEndTime());
+			}
+			catch (InterruptedException | ExecutionException | CancellationException e)
+			{
+				log.severe("Error while waiting for upload workers to finish: " + e.getMessage());
+				exception = e;
+			}
 		}
-		endTime = System.currentTimeMillis();
 		status = Status.FINISHED;
 		return ConversionResult.collect(futures, startTime, endTime, exception);
 	}
@@ -97,4 +149,9 @@ public abstract class AbstractTableWorker implements Callable<ConversionResult>
 		return status;
 	}
 
+	public String getTable()
+	{
+		return table;
+	}
+
 }
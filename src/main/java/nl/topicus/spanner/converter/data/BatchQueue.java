@@ -0,0 +1,85 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Queue that hands batches from a reader to one or more writers. The capacity
+ * of the queue is expressed in bytes, so that the reader blocks when the
+ * writers cannot keep up, regardless of the size of the individual records. A
+ * batch that is larger than the capacity of the queue is accepted when the
+ * queue is empty.
+ */
+final class BatchQueue
+{
+	private final long capacityInBytes;
+
+	private final Deque<RowBatch> batches = new ArrayDeque<>();
+
+	private long bytes;
+
+	private boolean closed;
+
+	private boolean aborted;
+
+	BatchQueue(long capacityInBytes)
+	{
+		this.capacityInBytes = capacityInBytes;
+	}
+
+	/**
+	 * Adds a batch to the queue and blocks until there is room for it.
+	 *
+	 * @return false if the queue has been aborted and the batch was not added
+	 */
+	synchronized boolean put(RowBatch batch) throws InterruptedException
+	{
+		while (!aborted && !batches.isEmpty() && bytes + batch.getByteSize() > capacityInBytes)
+			wait();
+		if (aborted)
+			return false;
+		batches.add(batch);
+		bytes += batch.getByteSize();
+		notifyAll();
+		return true;
+	}
+
+	/**
+	 * Takes the next batch from the queue and blocks until one is available.
+	 *
+	 * @return The next batch, or null if the queue has been closed and all
+	 *         batches have been taken, or if the queue has been aborted
+	 */
+	synchronized RowBatch take() throws InterruptedException
+	{
+		while (!aborted && !closed && batches.isEmpty())
+			wait();
+		if (aborted || batches.isEmpty())
+			return null;
+		RowBatch batch = batches.poll();
+		bytes -= batch.getByteSize();
+		notifyAll();
+		return batch;
+	}
+
+	/**
+	 * Indicates that no more batches will be added to the queue
+	 */
+	synchronized void close()
+	{
+		closed = true;
+		notifyAll();
+	}
+
+	/**
+	 * Stops both the reader and the writers of this queue, for example because
+	 * one of them failed. All remaining batches are discarded.
+	 */
+	synchronized void abort()
+	{
+		aborted = true;
+		batches.clear();
+		bytes = 0;
+		notifyAll();
+	}
+}
@@ -0,0 +1,121 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+import nl.topicus.spanner.converter.util.ConverterUtils;
+
+/**
+ * Controls the number of records per batch of one table while the table is
+ * being copied. The controller learns the actual number of bytes per record
+ * from the batches that have been committed, and keeps the batches below the
+ * configured byte and mutation targets. Within these targets, the batch size
+ * is increased as long as this increases the throughput, and decreased when
+ * the throughput drops.
+ *
+ * The batch size is only adapted for Cloud Spanner destinations. For other
+ * destinations, the initial batch size is always used.
+ */
+final class BatchSizeController
+{
+	private static final Logger log = Logger.getLogger(BatchSizeController.class.getName());
+
+	private static final double GROW_FACTOR = 1.25d;
+
+	private static final double SHRINK_FACTOR = 0.8d;
+
+	/**
+	 * Weight of the last observation in the moving averages
+	 */
+	private static final double ALPHA = 0.3d;
+
+	private final String table;
+
+	private final boolean adaptive;
+
+	private final long byteTarget;
+
+	private final long mutationTarget;
+
+	private final int mutationsPerRecord;
+
+	private final CommitCost commitCost;
+
+	private int batchSize;
+
+	private double bytesPerRecord;
+
+	private double throughput;
+
+	BatchSizeController(ConverterConfiguration config, String table, int initialBatchSize, CommitCost commitCost)
+	{
+		this.table = table;
+		this.adaptive = config.isUseAdaptiveBatchSize()
+				&& config.getDestinationDatabaseType() == DatabaseType.CloudSpanner;
+		this.byteTarget = commitCost.getByteLimit();
+		this.mutationTarget = commitCost.getMutationLimit();
+		this.mutationsPerRecord = commitCost.getMutationsPerRecord();
+		this.commitCost = commitCost;
+		this.batchSize = initialBatchSize;
+	}
+
+	/**
+	 * @return The cost of the records of the table in a commit, which the
+	 *         readers use to cut batches before they exceed the limits of one
+	 *         commit
+	 */
+	CommitCost getCommitCost()
+	{
+		return commitCost;
+	}
+
+	/**
+	 * @return The number of records to read for the next batch
+	 */
+	synchronized int getBatchSize()
+	{
+		return batchSize;
+	}
+
+	/**
+	 * Registers a committed batch and adapts the batch size based on the
+	 * actual size of the batch and the time it took to commit it.
+	 *
+	 * @param records
+	 *            The number of records in the batch
+	 * @param bytes
+	 *            The actual number of bytes of the batch
+	 * @param commitMillis
+	 *            The time it took to write and commit the batch
+	 */
+	synchronized void batchCommitted(int records, long bytes, long commitMillis)
+	{
+		if (!adaptive || records == 0)
+			return;
+		double observedBytesPerRecord = (double) bytes / records;
+		bytesPerRecord = bytesPerRecord == 0d ? observedBytesPerRecord
+				: ALPHA * observedBytesPerRecord + (1 - ALPHA) * bytesPerRecord;
+		double observedThroughput = (double) records / Math.max(commitMillis, 1L);
+
+		int newBatchSize;
+		if (throughput == 0d || observedThroughput >= throughput * 0.95d)
+			newBatchSize = (int) Math.max(batchSize * GROW_FACTOR, batchSize + 1L);
+		else
+			newBatchSize = (int) (batchSize * SHRINK_FACTOR);
+		throughput = throughput == 0d ? observedThroughput
+				: ALPHA * observedThroughput + (1 - ALPHA) * throughput;
+
+		long maxRecordsForBytes = bytesPerRecord > 0d ? (long) (byteTarget / bytesPerRecord) : Integer.MAX_VALUE;
+		long maxRecordsForMutations = mutationTarget / mutationsPerRecord;
+		long max = Math.min(maxRecordsForBytes, maxRecordsForMutations);
+		newBatchSize = (int) Math.max(Math.min(Math.max(newBatchSize, ConverterUtils.MIN_BATCH_SIZE), max), 1L);
+		if (newBatchSize != batchSize)
+		{
+			log.finer(table + ": Batch size changed from " + batchSize + " to " + newBatchSize + " ("
+					+ Math.round(bytesPerRecord) + " bytes per record, " + commitMillis + "ms per commit)");
+			batchSize = newBatchSize;
+		}
+	}
+
+}
@@ -0,0 +1,423 @@
+package nl.topicus.spanner.converter.data;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.postgresql.PGConnection;
+import org.postgresql.PGStatement;
+import org.postgresql.copy.PGCopyInputStream;
+
+/**
+ * Reads the records of a query on a PostgreSQL source using COPY ... TO STDOUT
+ * (FORMAT binary), and decodes the binary tuples directly into rows. The
+ * decoder of each column is chosen from the type of the column in the source
+ * table, and produces the same values as the JDBC driver does for
+ * {@link ResultSet#getObject(int)}. Queries with columns of types that have no
+ * decoder, such as arrays and json, cannot be read with this reader, see
+ * {@link #canDecode(Connection, String, Columns)}.
+ *
+ * COPY does not support bind parameters, so the parameters of the query are
+ * added to the query as literals.
+ */
+final class BinaryCopyReader implements AutoCloseable
+{
+	private static final String COPY_FORMAT = "COPY ($SELECT) TO STDOUT (FORMAT binary)";
+
+	private static final String TYPES_SELECT_FORMAT = "SELECT $COLUMNS FROM $TABLE LIMIT 0";
+
+	private static final byte[] SIGNATURE = { 'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xff, '\r', '\n', 0 };
+
+	private static final LocalDate POSTGRES_EPOCH_DATE = LocalDate.of(2000, 1, 1);
+
+	private static final LocalDateTime POSTGRES_EPOCH = POSTGRES_EPOCH_DATE.atStartOfDay();
+
+	private static final long POSTGRES_EPOCH_SECONDS = POSTGRES_EPOCH.toEpochSecond(ZoneOffset.UTC);
+
+	private static final int NUMERIC_NEGATIVE = 0x4000;
+
+	private static final int NUMERIC_NAN = 0xC000;
+
+	private static final int NUMERIC_POSITIVE_INFINITY = 0xD000;
+
+	private static final int NUMERIC_NEGATIVE_INFINITY = 0xF000;
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+			.ofPattern("uuuu-MM-dd HH:mm:ss.SSSSSSSSSxxx");
+
+	private static final BigInteger NBASE = BigInteger.valueOf(10000L);
+
+	private enum Decoder
+	{
+		INT2
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Integer.valueOf(in.readShort());
+			}
+		},
+		INT4
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Integer.valueOf(in.readInt());
+			}
+		},
+		INT8
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Long.valueOf(in.readLong());
+			}
+		},
+		FLOAT4
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Float.valueOf(in.readFloat());
+			}
+		},
+		FLOAT8
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Double.valueOf(in.readDouble());
+			}
+		},
+		BOOL
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Boolean.valueOf(in.readByte() != 0);
+			}
+		},
+		TEXT
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return new String(readBytes(in, length), StandardCharsets.UTF_8);
+			}
+		},
+		BYTEA
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return readBytes(in, length);
+			}
+		},
+		DATE
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				int days = in.readInt();
+				if (days == Integer.MAX_VALUE)
+					return new java.sql.Date(PGStatement.DATE_POSITIVE_INFINITY);
+				if (days == Integer.MIN_VALUE)
+					return new java.sql.Date(PGStatement.DATE_NEGATIVE_INFINITY);
+				return java.sql.Date.valueOf(POSTGRES_EPOCH_DATE.plusDays(days));
+			}
+		},
+		TIME
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return Time.valueOf(LocalTime.ofNanoOfDay(in.readLong() * 1000L));
+			}
+		},
+		TIMESTAMP
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				long micros = in.readLong();
+				if (isInfinity(micros))
+					return toInfinity(micros);
+				return Timestamp.valueOf(POSTGRES_EPOCH.plus(micros, ChronoUnit.MICROS));
+			}
+		},
+		TIMESTAMPTZ
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				long micros = in.readLong();
+				if (isInfinity(micros))
+					return toInfinity(micros);
+				return Timestamp.from(Instant.ofEpochSecond(POSTGRES_EPOCH_SECONDS + Math.floorDiv(micros, 1000000L),
+						Math.floorMod(micros, 1000000L) * 1000L));
+			}
+		},
+		UUID
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				return new java.util.UUID(in.readLong(), in.readLong());
+			}
+		},
+		NUMERIC
+		{
+			@Override
+			Object decode(DataInputStream in, int length) throws IOException
+			{
+				int numberOfDigits = in.readShort();
+				int weight = in.readShort();
+				int sign = in.readShort() & 0xFFFF;
+				int displayScale = in.readShort();
+				if (sign == NUMERIC_NAN)
+					return Double.valueOf(Double.NaN);
+				if (sign == NUMERIC_POSITIVE_INFINITY)
+					return Double.valueOf(Double.POSITIVE_INFINITY);
+				if (sign == NUMERIC_NEGATIVE_INFINITY)
+					return Double.valueOf(Double.NEGATIVE_INFINITY);
+				BigInteger unscaled = BigInteger.ZERO;
+				for (int digit = 0; digit < numberOfDigits; digit++)
+					unscaled = unscaled.multiply(NBASE).add(BigInteger.valueOf(in.readShort()));
+				// Each digit is a base 10000 digit, so the scale of the digits
+				// is four decimal digits per base 10000 digit
+				BigDecimal res = new BigDecimal(unscaled, 4 * (numberOfDigits - weight - 1));
+				res = res.setScale(displayScale, RoundingMode.UNNECESSARY);
+				return sign == NUMERIC_NEGATIVE ? res.negate() : res;
+			}
+		};
+
+		abstract Object decode(DataInputStream in, int length) throws IOException;
+
+		/**
+		 * @return true if the timestamp is infinity or -infinity, which
+		 *         PostgreSQL stores as the largest and smallest possible value
+		 */
+		private static boolean isInfinity(long micros)
+		{
+			return micros == Long.MAX_VALUE || micros == Long.MIN_VALUE;
+		}
+
+		/**
+		 * @return The timestamp that the JDBC driver returns for infinity or
+		 *         -infinity
+		 */
+		private static Timestamp toInfinity(long micros)
+		{
+			return new Timestamp(micros == Long.MAX_VALUE ? PGStatement.DATE_POSITIVE_INFINITY
+					: PGStatement.DATE_NEGATIVE_INFINITY);
+		}
+	}
+
+	private static final Map<String, Decoder> DECODERS = new HashMap<>();
+	static
+	{
+		DECODERS.put("int2", Decoder.INT2);
+		DECODERS.put("smallserial", Decoder.INT2);
+		DECODERS.put("int4", Decoder.INT4);
+		DECODERS.put("serial", Decoder.INT4);
+		DECODERS.put("int8", Decoder.INT8);
+		DECODERS.put("bigserial", Decoder.INT8);
+		DECODERS.put("float4", Decoder.FLOAT4);
+		DECODERS.put("float8", Decoder.FLOAT8);
+		DECODERS.put("bool", Decoder.BOOL);
+		DECODERS.put("text", Decoder.TEXT);
+		DECODERS.put("varchar", Decoder.TEXT);
+		DECODERS.put("bpchar", Decoder.TEXT);
+		DECODERS.put("bytea", Decoder.BYTEA);
+		DECODERS.put("date", Decoder.DATE);
+		DECODERS.put("time", Decoder.TIME);
+		DECODERS.put("timestamp", Decoder.TIMESTAMP);
+		DECODERS.put("timestamptz", Decoder.TIMESTAMPTZ);
+		DECODERS.put("uuid", Decoder.UUID);
+		DECODERS.put("numeric", Decoder.NUMERIC);
+	}
+
+	private final Decoder[] decoders;
+
+	private final DataInputStream in;
+
+	/**
+	 * Starts copying the records of a query
+	 *
+	 * @param source
+	 *            The connection to the PostgreSQL source
+	 * @param table
+	 *            The table that is queried
+	 * @param selectCols
+	 *            The columns to select
+	 * @param select
+	 *            The query to copy, with $COLUMNS as placeholder for the
+	 *            columns to select, and ? as placeholder for each parameter
+	 * @param parameters
+	 *            The values of the parameters of the query
+	 */
+	BinaryCopyReader(Connection source, String table, Columns selectCols, String select, List<Object> parameters)
+			throws SQLException, IOException
+	{
+		List<String> columns = selectCols.getColumns();
+		List<String> typeNames = getSourceTypeNames(source, table, selectCols);
+		this.decoders = new Decoder[columns.size()];
+		for (int index = 0; index < decoders.length; index++)
+		{
+			decoders[index] = DECODERS.get(typeNames.get(index));
+			if (decoders[index] == null)
+				throw new IllegalArgumentException("Column " + columns.get(index) + " of type "
+						+ typeNames.get(index) + " cannot be read with binary COPY");
+		}
+		String query = bindLiterals(select, parameters).replace("$COLUMNS", String.join(", ", columns));
+		String copy = COPY_FORMAT.replace("$SELECT", query);
+		this.in = new DataInputStream(new BufferedInputStream(
+				new PGCopyInputStream(source.unwrap(PGConnection.class), copy), 65536));
+		readHeader();
+	}
+
+	/**
+	 * @return true if all columns of the table can be decoded from binary
+	 *         COPY into the values that {@link ResultSet#getObject(int)}
+	 *         returns for them
+	 */
+	static boolean canDecode(Connection source, String table, Columns selectCols) throws SQLException
+	{
+		return DECODERS.keySet().containsAll(getSourceTypeNames(source, table, selectCols));
+	}
+
+	private static List<String> getSourceTypeNames(Connection source, String table, Columns selectCols)
+			throws SQLException
+	{
+		String select = TYPES_SELECT_FORMAT.replace("$COLUMNS", selectCols.getColumnNames());
+		select = select.replace("$TABLE", table);
+		List<String> res = new ArrayList<>();
+		try (ResultSet rs = source.createStatement().executeQuery(select))
+		{
+			ResultSetMetaData metaData = rs.getMetaData();
+			for (int index = 1; index <= metaData.getColumnCount(); index++)
+				res.add(metaData.getColumnTypeName(index));
+		}
+		return res;
+	}
+
+	/**
+	 * Replaces each ? in the query with the literal of the next parameter
+	 */
+	private static String bindLiterals(String select, List<Object> parameters)
+	{
+		StringBuilder res = new StringBuilder(select.length());
+		int parameter = 0;
+		for (int index = 0; index < select.length(); index++)
+		{
+			char c = select.charAt(index);
+			if (c == '?')
+			{
+				res.append(toLiteral(parameters.get(parameter)));
+				parameter++;
+			}
+			else
+			{
+				res.append(c);
+			}
+		}
+		return res.toString();
+	}
+
+	private static String toLiteral(Object value)
+	{
+		if (value == null)
+			return "NULL";
+		if (value instanceof BigDecimal)
+			return ((BigDecimal) value).toPlainString();
+		if (value instanceof Number || value instanceof Boolean)
+			return value.toString();
+		if (value instanceof java.util.Date && ((java.util.Date) value).getTime() == PGStatement.DATE_POSITIVE_INFINITY)
+			return "'infinity'";
+		if (value instanceof java.util.Date && ((java.util.Date) value).getTime() == PGStatement.DATE_NEGATIVE_INFINITY)
+			return "'-infinity'";
+		// The offset of the default time zone makes the literal the same
+		// instant for a timestamptz column, and the same local time for a
+		// timestamp column, as the decoded value regardless of the time zone
+		// of the session
+		if (value instanceof Timestamp)
+			return "'" + OffsetDateTime.ofInstant(((Timestamp) value).toInstant(), ZoneId.systemDefault())
+					.format(TIMESTAMP_FORMAT) + "'";
+		if (value instanceof byte[])
+		{
+			StringBuilder hex = new StringBuilder("decode('");
+			for (byte b : (byte[]) value)
+				hex.append(String.format("%02x", b));
+			return hex.append("', 'hex')").toString();
+		}
+		return "'" + value.toString().replace("'", "''") + "'";
+	}
+
+	private void readHeader() throws IOException
+	{
+		byte[] signature = readBytes(in, SIGNATURE.length);
+		if (!Arrays.equals(signature, SIGNATURE))
+			throw new IOException("Invalid COPY binary header");
+		in.readInt(); // flags
+		int extensionLength = in.readInt();
+		readBytes(in, extensionLength);
+	}
+
+	/**
+	 * Reads the next record into the given row
+	 *
+	 * @return false if there are no more records
+	 */
+	boolean next(Object[] row) throws IOException
+	{
+		int numberOfFields = in.readShort();
+		if (numberOfFields == -1)
+			return false;
+		if (numberOfFields != decoders.length)
+			throw new IOException("Expected " + decoders.length + " fields in COPY record, got " + numberOfFields);
+		for (int index = 0; index < decoders.length; index++)
+		{
+			int length = in.readInt();
+			row[index] = length == -1 ? null : decoders[index].decode(in, length);
+		}
+		return true;
+	}
+
+	private static byte[] readBytes(DataInputStream in, int length) throws IOException
+	{
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		in.close();
+	}
+
+}
@@ -0,0 +1,420 @@
+package nl.topicus.spanner.converter.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UTFDataFormatException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.ConvertMode;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+
+/**
+ * Journal of the progress of all key ranges that are being copied. An entry
+ * is appended to the journal each time an upload worker has committed a
+ * batch, so that an interrupted copy can be resumed from the last committed
+ * key of each range. The last entry of a range in the journal describes the
+ * current state of the range.
+ *
+ * The journal starts with a header that contains a hash of the source and
+ * destination URL, the catalog, the schema and the tables that are copied, so
+ * that a journal is only resumed by a run that copies the same tables between
+ * the same databases. Each entry is written as a length-prefixed serialized
+ * object. A partially written entry at the end of the journal, for example
+ * because the JVM was killed while writing it, is ignored when the journal is
+ * read.
+ *
+ * When the tail of a range is split off by work stealing, the entry of the new
+ * range records the range it was split from. Reading such an entry ends the
+ * original range at the begin key of the new range, also for entries of the
+ * original range that were written later but created before the split.
+ */
+final class Checkpoint implements AutoCloseable
+{
+	private static final Logger log = Logger.getLogger(Checkpoint.class.getName());
+
+	private static final String MAGIC = "SpannerConverterCheckpoint/1";
+
+	/**
+	 * The progress of one key range of a table
+	 */
+	static final class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		final String table;
+
+		final int range;
+
+		final List<Object> beginKey;
+
+		final boolean beginInclusive;
+
+		final List<Object> endKey;
+
+		final List<Object> lastCommittedKey;
+
+		final long recordCount;
+
+		final long byteCount;
+
+		final long estimatedRecordCount;
+
+		final boolean finished;
+
+		/**
+		 * The range that this range was split off from, or null if this range
+		 * was not created by a split
+		 */
+		final Integer splitFrom;
+
+		Entry(String table, int range, KeyRange keyRange, List<Object> lastCommittedKey, long recordCount,
+				long byteCount, boolean finished)
+		{
+			this(table, range, keyRange, lastCommittedKey, recordCount, byteCount, finished, null);
+		}
+
+		Entry(String table, int range, KeyRange keyRange, List<Object> lastCommittedKey, long recordCount,
+				long byteCount, boolean finished, Integer splitFrom)
+		{
+			this.table = table;
+			this.range = range;
+			this.beginKey = keyRange.getBeginKey();
+			this.beginInclusive = keyRange.isBeginInclusive();
+			this.endKey = keyRange.getEndKey();
+			this.lastCommittedKey = lastCommittedKey;
+			this.recordCount = recordCount;
+			this.byteCount = byteCount;
+			this.estimatedRecordCount = keyRange.getEstimatedRecordCount();
+			this.finished = finished;
+			this.splitFrom = splitFrom;
+		}
+
+		/**
+		 * Copies an entry with a different end key. The copy does not record
+		 * the range it was split from, as the split has then been applied.
+		 */
+		private Entry(Entry entry, List<Object> endKey)
+		{
+			this.table = entry.table;
+			this.range = entry.range;
+			this.beginKey = entry.beginKey;
+			this.beginInclusive = entry.beginInclusive;
+			this.endKey = endKey;
+			this.lastCommittedKey = entry.lastCommittedKey;
+			this.recordCount = entry.recordCount;
+			this.byteCount = entry.byteCount;
+			this.estimatedRecordCount = entry.estimatedRecordCount;
+			this.finished = entry.finished;
+			this.splitFrom = null;
+		}
+
+		/**
+		 * @return The part of the range that has not yet been copied
+		 */
+		KeyRange getRemainingRange()
+		{
+			long remaining = Math.max(estimatedRecordCount - recordCount, 0L);
+			if (lastCommittedKey == null)
+				return new KeyRange(beginKey, beginInclusive, endKey, remaining);
+			return new KeyRange(lastCommittedKey, false, endKey, remaining);
+		}
+	}
+
+	private final Path file;
+
+	/**
+	 * The state of each table at the start of this run, indexed by range
+	 */
+	private final Map<String, Map<Integer, Entry>> previousEntries;
+
+	private final FileChannel channel;
+
+	private final DataOutputStream out;
+
+	private Checkpoint(Path file, String header, Map<String, Map<Integer, Entry>> previousEntries)
+			throws IOException
+	{
+		this.file = file;
+		this.previousEntries = previousEntries;
+		// Rewrite the journal with only the last entry of each range before
+		// appending new entries to it
+		Path tmp = Paths.get(file.toString() + ".tmp");
+		try (FileChannel tmpChannel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+				DataOutputStream compacted = new DataOutputStream(
+						new BufferedOutputStream(Channels.newOutputStream(tmpChannel))))
+		{
+			compacted.writeUTF(MAGIC);
+			compacted.writeUTF(header);
+			for (Map<Integer, Entry> ranges : previousEntries.values())
+				for (Entry entry : ranges.values())
+					write(compacted, entry);
+			compacted.flush();
+			tmpChannel.force(true);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		this.channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+	}
+
+	/**
+	 * Opens the checkpoint journal of the configuration. When the data convert
+	 * mode is {@link ConvertMode#Resume}, the existing journal is loaded, and
+	 * must have been written for the same databases and tables. Otherwise a
+	 * new journal is started, unless the existing journal is of an
+	 * interrupted copy and may not be overwritten.
+	 *
+	 * @param tables
+	 *            The tables that are copied in this run
+	 * @return The checkpoint, or null if checkpoints have been disabled
+	 */
+	static Checkpoint open(ConverterConfiguration config, List<String> tables) throws IOException
+	{
+		String fileName = config.getCheckpointFile();
+		if (fileName == null || "".equals(fileName))
+		{
+			if (config.getDataConvertMode() == ConvertMode.Resume)
+				throw new IllegalArgumentException("Resume mode requires a checkpoint file");
+			return null;
+		}
+		Path file = Paths.get(fileName);
+		String header = getHeader(config, tables);
+		Map<String, Map<Integer, Entry>> entries = new LinkedHashMap<>();
+		if (config.getDataConvertMode() == ConvertMode.Resume)
+		{
+			if (!Files.exists(file))
+				throw new IllegalArgumentException("Checkpoint file " + file + " not found");
+			entries = load(file, header);
+			log.info("Resuming from checkpoint " + file + " with " + entries.size() + " tables");
+		}
+		else if (Files.exists(file) && !config.isOverwriteCheckpoint() && !isFinished(file))
+		{
+			throw new IllegalArgumentException("Checkpoint file " + file
+					+ " is the journal of an interrupted copy. Resume the copy, or set "
+					+ "DataConverter.overwriteCheckpoint=true to start a new copy.");
+		}
+		return new Checkpoint(file, header, entries);
+	}
+
+	/**
+	 * @return A hash of the databases and tables of the copy. The values are
+	 *         hashed to keep credentials in the URLs out of the file.
+	 */
+	private static String getHeader(ConverterConfiguration config, List<String> tables)
+	{
+		List<String> sortedTables = new ArrayList<>(tables);
+		Collections.sort(sortedTables);
+		String value = config.getUrlSource() + "\n" + config.getUrlDestination() + "\n" + config.getCatalog() + "\n"
+				+ config.getSchema() + "\n" + String.join("\n", sortedTables);
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder res = new StringBuilder(hash.length * 2);
+			for (byte b : hash)
+				res.append(String.format("%02x", b));
+			return res.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * @return true if the journal can be read and all ranges in it have been
+	 *         finished
+	 */
+	private static boolean isFinished(Path file)
+	{
+		try
+		{
+			for (Map<Integer, Entry> ranges : load(file, null).values())
+				for (Entry entry : ranges.values())
+					if (!entry.finished)
+						return false;
+			return true;
+		}
+		catch (IOException e)
+		{
+			log.fine("Could not read checkpoint " + file + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Loads the last entry of each range in the journal
+	 *
+	 * @param header
+	 *            The header that the journal must have, or null if the header
+	 *            should not be checked
+	 */
+	private static Map<String, Map<Integer, Entry>> load(Path file, String header) throws IOException
+	{
+		Map<String, Map<Integer, Entry>> entries = new LinkedHashMap<>();
+		// The key at which each range has been split, indexed by table and
+		// range
+		Map<String, Map<Integer, List<Object>>> splitKeys = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file))))
+		{
+			String magic;
+			String storedHeader;
+			try
+			{
+				magic = in.readUTF();
+				storedHeader = in.readUTF();
+			}
+			catch (EOFException | UTFDataFormatException e)
+			{
+				throw new IOException("Invalid checkpoint file " + file, e);
+			}
+			if (!MAGIC.equals(magic))
+				throw new IOException("Invalid checkpoint file " + file);
+			if (header != null && !header.equals(storedHeader))
+				throw new IllegalArgumentException("Checkpoint file " + file
+						+ " was written by a copy of other tables, or between other databases");
+			// The number of bytes after the header. The magic and the header
+			// are ASCII strings, which writeUTF writes as a two byte length
+			// followed by one byte per character.
+			long remaining = Files.size(file) - 4 - magic.length() - storedHeader.length();
+			while (true)
+			{
+				byte[] bytes;
+				try
+				{
+					int length = in.readInt();
+					remaining -= 4;
+					// A length beyond the end of the file is the length of an
+					// entry that was not completely written, or was corrupted
+					if (length < 0 || length > remaining)
+					{
+						log.warning("Ignoring an incomplete entry at the end of checkpoint " + file);
+						break;
+					}
+					bytes = new byte[length];
+					in.readFully(bytes);
+					remaining -= length;
+				}
+				catch (EOFException e)
+				{
+					break;
+				}
+				try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+				{
+					Entry entry = (Entry) objects.readObject();
+					Map<Integer, Entry> ranges = entries.computeIfAbsent(entry.table, t -> new TreeMap<>());
+					Map<Integer, List<Object>> tableSplitKeys = splitKeys.computeIfAbsent(entry.table,
+							t -> new HashMap<>());
+					if (entry.splitFrom != null)
+					{
+						tableSplitKeys.put(entry.splitFrom, entry.beginKey);
+						Entry original = ranges.get(entry.splitFrom);
+						if (original != null)
+							ranges.put(entry.splitFrom, new Entry(original, entry.beginKey));
+						entry = new Entry(entry, entry.endKey);
+					}
+					List<Object> splitKey = tableSplitKeys.get(entry.range);
+					if (splitKey != null)
+						entry = new Entry(entry, splitKey);
+					ranges.put(entry.range, entry);
+				}
+				catch (ClassNotFoundException e)
+				{
+					throw new IOException("Invalid checkpoint file " + file, e);
+				}
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * @return true if the previous run started copying the given table
+	 */
+	boolean isStarted(String table)
+	{
+		return previousEntries.containsKey(table);
+	}
+
+	/**
+	 * @return The ranges of the given table that were not finished in the
+	 *         previous run
+	 */
+	List<Entry> getUnfinishedRanges(String table)
+	{
+		Map<Integer, Entry> ranges = previousEntries.get(table);
+		if (ranges == null)
+			return Collections.emptyList();
+		List<Entry> res = new ArrayList<>(ranges.size());
+		for (Entry entry : ranges.values())
+			if (!entry.finished)
+				res.add(entry);
+		return res;
+	}
+
+	/**
+	 * @return The lowest range index that has not been used for the given
+	 *         table in the previous run
+	 */
+	int getNextRangeIndex(String table)
+	{
+		Map<Integer, Entry> ranges = previousEntries.get(table);
+		if (ranges == null || ranges.isEmpty())
+			return 0;
+		return Collections.max(ranges.keySet()) + 1;
+	}
+
+	/**
+	 * Appends an entry to the journal and forces it to disk
+	 */
+	synchronized void write(Entry entry) throws IOException
+	{
+		write(out, entry);
+		out.flush();
+		channel.force(false);
+	}
+
+	private static void write(DataOutputStream out, Entry entry) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ObjectOutputStream objects = new ObjectOutputStream(bytes))
+		{
+			objects.writeObject(entry);
+		}
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+	}
+
+	@Override
+	public synchronized void close() throws IOException
+	{
+		out.close();
+		log.fine("Checkpoint " + file + " closed");
+	}
+
+}
@@ -0,0 +1,208 @@
+package nl.topicus.spanner.converter.data;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * Binds the values of one column to the parameters of an INSERT statement. The
+ * binder of each column is chosen once per table from the type of the column in
+ * the destination table, so that the values of a record are bound with the
+ * typed setter of each column instead of with
+ * {@link PreparedStatement#setObject(int, Object, int)}, which makes the driver
+ * look at the type of each value again. A value that is not of the Java type
+ * that belongs to the setter of its column, for example a {@link BigDecimal}
+ * for a FLOAT64 column, is still bound with setObject, so that the driver
+ * converts it as before.
+ */
+enum ColumnBinder
+{
+	BOOLEAN
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Boolean)
+				statement.setBoolean(index, ((Boolean) value).booleanValue());
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	INT
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Integer || value instanceof Short || value instanceof Byte)
+				statement.setInt(index, ((Number) value).intValue());
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	LONG
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+				statement.setLong(index, ((Number) value).longValue());
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	DOUBLE
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Double || value instanceof Float)
+				statement.setDouble(index, ((Number) value).doubleValue());
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	DECIMAL
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof BigDecimal)
+				statement.setBigDecimal(index, (BigDecimal) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	STRING
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof String)
+				statement.setString(index, (String) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	BYTES
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof byte[])
+				statement.setBytes(index, (byte[]) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	DATE
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof java.sql.Date)
+				statement.setDate(index, (java.sql.Date) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	TIME
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Time)
+				statement.setTime(index, (Time) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	TIMESTAMP
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			if (value instanceof Timestamp)
+				statement.setTimestamp(index, (Timestamp) value);
+			else
+				statement.setObject(index, value, type);
+		}
+	},
+	OBJECT
+	{
+		@Override
+		void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException
+		{
+			statement.setObject(index, value, type);
+		}
+	};
+
+	/**
+	 * Binds a value that is not null
+	 *
+	 * @param statement
+	 *            The statement to bind the value to
+	 * @param index
+	 *            The (1-based) index of the parameter
+	 * @param value
+	 *            The value to bind
+	 * @param type
+	 *            The SQL type of the column in the destination table
+	 */
+	abstract void bind(PreparedStatement statement, int index, Object value, int type) throws SQLException;
+
+	/**
+	 * @return The binder for each column, in the order of the columns
+	 */
+	static ColumnBinder[] compile(int[] types)
+	{
+		ColumnBinder[] res = new ColumnBinder[types.length];
+		for (int index = 0; index < types.length; index++)
+			res[index] = forType(types[index]);
+		return res;
+	}
+
+	private static ColumnBinder forType(int type)
+	{
+		switch (type)
+		{
+		case Types.BOOLEAN:
+		case Types.BIT:
+			return BOOLEAN;
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			return INT;
+		case Types.BIGINT:
+			return LONG;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+		case Types.REAL:
+			return DOUBLE;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return DECIMAL;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.LONGNVARCHAR:
+			return STRING;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+			return BYTES;
+		case Types.DATE:
+			return DATE;
+		case Types.TIME:
+			return TIME;
+		case Types.TIMESTAMP:
+			return TIMESTAMP;
+		default:
+			return OBJECT;
+		}
+	}
+
+}
@@ -37,20 +37,90 @@ public final class Columns
 		return String.join(", ", primaryKeyCols);
 	}
 
-	public String getPrimaryKeyColumnsWhereClause(String prefix)
+	/**
+	 * @param bounded
+	 *            If false, only the lower bound of the primary key columns is
+	 *            included in the where clause
+	 */
+	public String getPrimaryKeyColumnsWhereClause(String prefix, boolean bounded)
 	{
 		List<String> res = new ArrayList<>(primaryKeyCols.size() * 2);
 		for (String s : primaryKeyCols)
 		{
 			res.add(prefix + s + ">=?");
 		}
-		for (String s : primaryKeyCols)
+		if (bounded)
 		{
-			res.add(prefix + s + "<=?");
+			for (String s : primaryKeyCols)
+			{
+				res.add(prefix + s + "<=?");
+			}
 		}
 		return String.join(" AND ", res);
 	}
 
+	/**
+	 * Creates a where clause that compares the primary key of a row with a key
+	 * value. The comparison is lexicographic over all primary key columns.
+	 *
+	 * @param prefix
+	 *            The prefix to add to the column names
+	 * @param operator
+	 *            The comparison operator, one of &gt;, &gt;= or &lt;
+	 * @param useRowValues
+	 *            If true, a row value comparison (a, b) &gt; (?, ?) will be
+	 *            generated. Otherwise the comparison will be expanded to a &gt;
+	 *            ? OR (a = ? AND b &gt; ?) for databases that do not support row
+	 *            value comparisons
+	 * @return The where clause
+	 */
+	public String getPrimaryKeyComparisonClause(String prefix, String operator, boolean useRowValues)
+	{
+		if (useRowValues)
+		{
+			String[] params = new String[primaryKeyCols.size()];
+			Arrays.fill(params, "?");
+			return "(" + getPrimaryKeyColumns(prefix) + ") " + operator + " (" + String.join(", ", params) + ")";
+		}
+		String strictOperator = operator.substring(0, 1);
+		List<String> res = new ArrayList<>(primaryKeyCols.size());
+		for (int i = 0; i < primaryKeyCols.size(); i++)
+		{
+			List<String> parts = new ArrayList<>(i + 1);
+			for (int j = 0; j < i; j++)
+				parts.add(prefix + primaryKeyCols.get(j) + "=?");
+			boolean last = i == primaryKeyCols.size() - 1;
+			parts.add(prefix + primaryKeyCols.get(i) + (last ? operator : strictOperator) + "?");
+			res.add("(" + String.join(" AND ", parts) + ")");
+		}
+		return "(" + String.join(" OR ", res) + ")";
+	}
+
+	/**
+	 * @return The (1-based) positions of the primary key columns in the column
+	 *         list
+	 */
+	public int[] getPrimaryKeyColumnIndices()
+	{
+		int[] res = new int[primaryKeyCols.size()];
+		for (int i = 0; i < res.length; i++)
+		{
+			String pk = primaryKeyCols.get(i);
+			int index = columns.indexOf(pk);
+			// The column might be prefixed by the table name in select
+			// statements
+			for (int j = 0; j < columns.size() && index == -1; j++)
+			{
+				if (columns.get(j).endsWith("." + pk))
+					index = j;
+			}
+			if (index == -1)
+				throw new IllegalStateException("Primary key column " + pk + " not found in column list");
+			res[i] = index + 1;
+		}
+		return res;
+	}
+
 	public String getPrimaryKeyColumns(String prefix)
 	{
 		List<String> res = new ArrayList<>(primaryKeyCols.size());
@@ -82,6 +152,18 @@ public final class Columns
 		return columnTypes;
 	}
 
+	/**
+	 * @return The column types as an array, for loops over the values of each
+	 *         record
+	 */
+	public int[] getColumnTypeArray()
+	{
+		int[] res = new int[columnTypes.size()];
+		for (int index = 0; index < res.length; index++)
+			res[index] = columnTypes.get(index).intValue();
+		return res;
+	}
+
 	public List<String> getPrimaryKeyCols()
 	{
 		return primaryKeyCols;
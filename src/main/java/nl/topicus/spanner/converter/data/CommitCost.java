@@ -0,0 +1,138 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+import nl.topicus.spanner.converter.util.ConverterUtils;
+import nl.topicus.spanner.converter.util.SchemaCatalog.IndexMetadata;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
+
+/**
+ * Computes what inserting the records of one table costs in a commit to Cloud
+ * Spanner, and decides when a batch has reached the limits of one commit.
+ *
+ * Cloud Spanner counts one mutation for each inserted column value, and one
+ * mutation for each key and storing column of each secondary index of the
+ * table. The size of a commit is the size of the inserted values plus the size
+ * of the index entries, which contain the values of the key and storing
+ * columns of the index and of the primary key of the table.
+ *
+ * A batch is full when one more record would exceed the maximum number of
+ * mutations per commit, or when its size has reached the configured batch size
+ * in bytes. The byte limit is capped below the commit size limit of Cloud
+ * Spanner, so that a commit cannot exceed it by the size of the last record.
+ * Batches for other destination databases are never full, as these databases
+ * have no such limits.
+ */
+final class CommitCost
+{
+	/**
+	 * The maximum size of a commit to Cloud Spanner
+	 */
+	private static final long MAX_COMMIT_BYTES = 100L * 1024L * 1024L;
+
+	/**
+	 * The maximum size of one value in Cloud Spanner
+	 */
+	private static final long MAX_VALUE_BYTES = 10L * 1024L * 1024L;
+
+	private final ConverterUtils converterUtils;
+
+	private final boolean limited;
+
+	private final int mutationsPerRecord;
+
+	private final long mutationLimit;
+
+	private final long byteLimit;
+
+	private final int[] types;
+
+	/**
+	 * The positions of the values that are written again in the index entries
+	 * of a record, once for each index that contains them
+	 */
+	private final int[] indexValuePositions;
+
+	CommitCost(ConverterConfiguration config, TableMetadata table, Columns insertCols)
+	{
+		this.converterUtils = new ConverterUtils(config);
+		this.limited = config.getDestinationDatabaseType() == DatabaseType.CloudSpanner;
+		this.mutationsPerRecord = Math
+				.max(converterUtils.getMutationsPerRecord(insertCols.getColumns().size(), table), 1);
+		this.mutationLimit = config.getMaxMutationsPerCommit();
+		this.byteLimit = Math.min(config.getBatchSize(), MAX_COMMIT_BYTES - MAX_VALUE_BYTES);
+		this.types = insertCols.getColumnTypeArray();
+		List<Integer> positions = new ArrayList<>();
+		for (IndexMetadata index : table.getSecondaryIndexes())
+		{
+			Set<String> columns = new LinkedHashSet<>(index.getColumns());
+			columns.addAll(index.getStoringColumns());
+			columns.addAll(table.getPrimaryKeyColumns());
+			for (String column : columns)
+			{
+				int position = insertCols.getColumnIndex(column);
+				if (position >= 0)
+					positions.add(position);
+			}
+		}
+		this.indexValuePositions = new int[positions.size()];
+		for (int index = 0; index < indexValuePositions.length; index++)
+			indexValuePositions[index] = positions.get(index).intValue();
+	}
+
+	/**
+	 * @return The number of mutations that inserting one record costs
+	 */
+	int getMutationsPerRecord()
+	{
+		return mutationsPerRecord;
+	}
+
+	/**
+	 * @return The maximum number of mutations in one commit
+	 */
+	long getMutationLimit()
+	{
+		return mutationLimit;
+	}
+
+	/**
+	 * @return The maximum number of bytes in one commit
+	 */
+	long getByteLimit()
+	{
+		return byteLimit;
+	}
+
+	/**
+	 * @return The number of bytes that inserting the given record adds to a
+	 *         commit, including its index entries
+	 */
+	long getRecordSize(Object[] row)
+	{
+		long size = 0;
+		for (int index = 0; index < row.length; index++)
+			size += converterUtils.getActualDataSize(types[index], row[index]);
+		for (int position : indexValuePositions)
+			size += converterUtils.getActualDataSize(types[position], row[position]);
+		return size;
+	}
+
+	/**
+	 * @param records
+	 *            The number of records in the batch
+	 * @param bytes
+	 *            The size of the records in the batch
+	 * @return true if no more records should be added to the batch
+	 */
+	boolean isFull(int records, long bytes)
+	{
+		return limited && ((long) (records + 1) * mutationsPerRecord > mutationLimit || bytes >= byteLimit);
+	}
+
+}
@@ -0,0 +1,144 @@
+package nl.topicus.spanner.converter.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+
+/**
+ * Hands out the connections to the source and destination databases that all
+ * workers use. The connections come from one bounded {@link ConnectionPool}
+ * for the source and one for the destination, so connections are reused
+ * across tables and workers instead of being opened for each worker.
+ *
+ * In snapshot mode, the factory exports a snapshot of the source database when
+ * it is opened, and the source connections of the readers read from that
+ * snapshot. All readers then see the source database as it was at one point in
+ * time, even when the source is being modified during the copy. The exported
+ * snapshot is only valid as long as the transaction that exported it is open,
+ * so the factory keeps that transaction open until it is closed.
+ */
+final class ConnectionFactory implements AutoCloseable
+{
+	private static final Logger log = Logger.getLogger(ConnectionFactory.class.getName());
+
+	private final ConnectionPool sourcePool;
+
+	private final ConnectionPool destinationPool;
+
+	/**
+	 * The connection that exported the snapshot, or null if no snapshot is
+	 * used
+	 */
+	private final Connection exporter;
+
+	private final String snapshot;
+
+	private ConnectionFactory(ConverterConfiguration config, Connection exporter, String snapshot)
+	{
+		this.sourcePool = new ConnectionPool("source", config.getUrlSource(), config.getMaxPoolSize(),
+				config.getConnectionWaitTimeoutInSeconds());
+		this.destinationPool = new ConnectionPool("destination", config.getUrlDestination(),
+				config.getMaxPoolSize(), config.getConnectionWaitTimeoutInSeconds());
+		this.exporter = exporter;
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Opens a connection factory for the source and destination databases. If
+	 * snapshot mode is enabled, a snapshot of the source database is exported.
+	 */
+	static ConnectionFactory open(ConverterConfiguration config) throws SQLException
+	{
+		if (!config.isUseSnapshot())
+			return new ConnectionFactory(config, null, null);
+		Connection exporter = DriverManager.getConnection(config.getUrlSource());
+		try
+		{
+			exporter.setAutoCommit(false);
+			exporter.setReadOnly(true);
+			exporter.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try (ResultSet rs = exporter.createStatement().executeQuery("SELECT pg_export_snapshot()"))
+			{
+				rs.next();
+				String snapshot = rs.getString(1);
+				log.info("Exported source snapshot " + snapshot);
+				return new ConnectionFactory(config, exporter, snapshot);
+			}
+		}
+		catch (SQLException e)
+		{
+			exporter.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return A connection to the source database from the pool
+	 */
+	Connection getSourceConnection() throws SQLException
+	{
+		return sourcePool.getConnection();
+	}
+
+	/**
+	 * @return A connection to the source database for a reader. In snapshot
+	 *         mode, the connection is read-only and has a transaction open on
+	 *         the exported snapshot. The transaction ends when the connection
+	 *         is closed.
+	 */
+	Connection getSnapshotSourceConnection() throws SQLException
+	{
+		Connection source = sourcePool.getConnection();
+		if (snapshot == null)
+			return source;
+		try
+		{
+			source.setAutoCommit(false);
+			source.setReadOnly(true);
+			source.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+			try (Statement statement = source.createStatement())
+			{
+				statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+			}
+			return source;
+		}
+		catch (SQLException e)
+		{
+			source.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return A connection to the destination database from the pool
+	 */
+	Connection getDestinationConnection() throws SQLException
+	{
+		return destinationPool.getConnection();
+	}
+
+	@Override
+	public void close() throws SQLException
+	{
+		try
+		{
+			if (exporter != null)
+			{
+				exporter.rollback();
+				exporter.close();
+				log.fine("Source snapshot " + snapshot + " released");
+			}
+		}
+		finally
+		{
+			sourcePool.close();
+			destinationPool.close();
+		}
+	}
+
+}
@@ -0,0 +1,401 @@
+package nl.topicus.spanner.converter.data;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * A bounded pool of connections to one database. The connections that the pool
+ * hands out are proxies; closing a proxy resets the connection and returns it
+ * to the pool instead of closing it, so workers can keep opening and closing
+ * connections with try-with-resources as usual.
+ *
+ * A returned connection is reset to auto commit, read-write and its original
+ * isolation level. Any open transaction is rolled back, and the statements
+ * that were created on the connection are closed. A connection that has been
+ * idle for a while is validated before it is handed out again, and is
+ * replaced if it is no longer valid.
+ */
+final class ConnectionPool implements AutoCloseable
+{
+	private static final Logger log = Logger.getLogger(ConnectionPool.class.getName());
+
+	/**
+	 * Connections that have been idle for longer than this are validated
+	 * before they are handed out
+	 */
+	private static final long VALIDATION_INTERVAL_MILLIS = 30000L;
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	private final String name;
+
+	private final String url;
+
+	private final int maxSize;
+
+	private final long waitTimeoutMillis;
+
+	/**
+	 * The idle connections, most recently used first
+	 */
+	private final Deque<PooledConnection> idle = new ArrayDeque<>();
+
+	/**
+	 * The number of open connections, idle or in use
+	 */
+	private int size;
+
+	private int inUse;
+
+	private boolean closed;
+
+	private long borrowCount;
+
+	private long openCount;
+
+	private long discardCount;
+
+	private int peakInUse;
+
+	private long totalWaitNanos;
+
+	private long maxWaitNanos;
+
+	private static final class PooledConnection
+	{
+		private final Connection connection;
+
+		private final int transactionIsolation;
+
+		private long lastUsed;
+
+		private PooledConnection(Connection connection) throws SQLException
+		{
+			this.connection = connection;
+			this.transactionIsolation = connection.getTransactionIsolation();
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Hands one checkout of a pooled connection to a worker. Closing the proxy
+	 * ends the checkout, after which the proxy can no longer be used.
+	 */
+	private final class Lease implements InvocationHandler
+	{
+		private final PooledConnection pooled;
+
+		private final List<Statement> statements = new ArrayList<>();
+
+		private boolean returned;
+
+		private Lease(PooledConnection pooled)
+		{
+			this.pooled = pooled;
+		}
+
+		@Override
+		public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+		{
+			String methodName = method.getName();
+			if (method.getParameterCount() == 0 && methodName.equals("close"))
+			{
+				if (!returned)
+				{
+					returned = true;
+					release(pooled, statements);
+				}
+				return null;
+			}
+			if (method.getParameterCount() == 0 && methodName.equals("isClosed"))
+				return Boolean.valueOf(returned);
+			if (method.getParameterCount() == 0 && methodName.equals("hashCode"))
+				return Integer.valueOf(System.identityHashCode(proxy));
+			if (method.getParameterCount() == 1 && methodName.equals("equals"))
+				return Boolean.valueOf(proxy == args[0]);
+			if (returned)
+				throw new SQLException("Connection has been returned to pool " + name);
+			Object res;
+			try
+			{
+				res = method.invoke(pooled.connection, args);
+			}
+			catch (InvocationTargetException e)
+			{
+				throw e.getCause();
+			}
+			if (res instanceof Statement)
+			{
+				// Forget the statements that the worker has already closed, so
+				// that a long checkout does not hold on to one statement per
+				// query
+				for (Iterator<Statement> iterator = statements.iterator(); iterator.hasNext();)
+				{
+					if (iterator.next().isClosed())
+						iterator.remove();
+				}
+				statements.add((Statement) res);
+			}
+			return res;
+		}
+	}
+
+	/**
+	 * @param name
+	 *            The name of the pool in log messages
+	 * @param url
+	 *            The JDBC URL of the database
+	 * @param maxSize
+	 *            The maximum number of open connections
+	 * @param waitTimeoutSeconds
+	 *            The maximum number of seconds to wait for a connection when
+	 *            all connections are in use
+	 */
+	ConnectionPool(String name, String url, int maxSize, int waitTimeoutSeconds)
+	{
+		this.name = name;
+		this.url = url;
+		this.maxSize = Math.max(maxSize, 1);
+		this.waitTimeoutMillis = TimeUnit.SECONDS.toMillis(waitTimeoutSeconds);
+	}
+
+	/**
+	 * @return A connection from the pool. The connection must be closed to
+	 *         return it to the pool.
+	 * @throws SQLException
+	 *             If no connection could be opened, or if no connection became
+	 *             available within the wait timeout
+	 */
+	Connection getConnection() throws SQLException
+	{
+		long startTime = System.nanoTime();
+		PooledConnection pooled = acquire(startTime);
+		registerBorrow(System.nanoTime() - startTime);
+		return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new Lease(pooled));
+	}
+
+	private PooledConnection acquire(long startTime) throws SQLException
+	{
+		long deadline = startTime + TimeUnit.MILLISECONDS.toNanos(waitTimeoutMillis);
+		while (true)
+		{
+			PooledConnection candidate = null;
+			synchronized (this)
+			{
+				while (true)
+				{
+					if (closed)
+						throw new SQLException("Connection pool " + name + " is closed");
+					candidate = idle.pollFirst();
+					if (candidate != null || size < maxSize)
+					{
+						if (candidate == null)
+							size++;
+						inUse++;
+						break;
+					}
+					long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+					if (remaining <= 0L)
+						throw new SQLException("Timed out waiting for a connection from pool " + name + " after "
+								+ waitTimeoutMillis + " ms; all " + maxSize + " connections are in use");
+					try
+					{
+						wait(remaining);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						throw new SQLException("Interrupted while waiting for a connection from pool " + name, e);
+					}
+				}
+			}
+			if (candidate == null)
+				return open();
+			if (isValid(candidate))
+				return candidate;
+			log.info("Connection pool " + name + ": Replacing a connection that is no longer valid");
+			discard(candidate);
+		}
+	}
+
+	private PooledConnection open() throws SQLException
+	{
+		Connection connection = null;
+		try
+		{
+			connection = DriverManager.getConnection(url);
+			PooledConnection res = new PooledConnection(connection);
+			synchronized (this)
+			{
+				openCount++;
+			}
+			return res;
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			closeQuietly(connection);
+			synchronized (this)
+			{
+				size--;
+				inUse--;
+				notifyAll();
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Validates a connection that has been idle for longer than the validation
+	 * interval
+	 */
+	private boolean isValid(PooledConnection pooled)
+	{
+		if (System.currentTimeMillis() - pooled.lastUsed < VALIDATION_INTERVAL_MILLIS)
+			return true;
+		try
+		{
+			return pooled.connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+		}
+		catch (SQLFeatureNotSupportedException e)
+		{
+			return true;
+		}
+		catch (SQLException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Resets a connection that is returned by a worker and puts it back in
+	 * the pool. The connection is closed if it cannot be reset, or if the pool
+	 * has been closed.
+	 */
+	private void release(PooledConnection pooled, List<Statement> statements)
+	{
+		for (Statement statement : statements)
+		{
+			try
+			{
+				statement.close();
+			}
+			catch (SQLException e)
+			{
+				// ignore, the connection is validated below
+			}
+		}
+		boolean reusable;
+		try
+		{
+			Connection connection = pooled.connection;
+			if (!connection.getAutoCommit())
+			{
+				connection.rollback();
+				connection.setAutoCommit(true);
+			}
+			if (connection.isReadOnly())
+				connection.setReadOnly(false);
+			if (connection.getTransactionIsolation() != pooled.transactionIsolation)
+				connection.setTransactionIsolation(pooled.transactionIsolation);
+			reusable = !connection.isClosed();
+		}
+		catch (SQLException e)
+		{
+			log.fine("Connection pool " + name + ": Could not reset connection: " + e.getMessage());
+			reusable = false;
+		}
+		synchronized (this)
+		{
+			if (reusable && !closed)
+			{
+				inUse--;
+				pooled.lastUsed = System.currentTimeMillis();
+				idle.addFirst(pooled);
+				notifyAll();
+				return;
+			}
+		}
+		discard(pooled);
+	}
+
+	private void discard(PooledConnection pooled)
+	{
+		closeQuietly(pooled.connection);
+		synchronized (this)
+		{
+			size--;
+			inUse--;
+			discardCount++;
+			notifyAll();
+		}
+	}
+
+	private synchronized void registerBorrow(long waitNanos)
+	{
+		borrowCount++;
+		totalWaitNanos += waitNanos;
+		maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+		peakInUse = Math.max(peakInUse, inUse);
+	}
+
+	private static void closeQuietly(Connection connection)
+	{
+		if (connection == null)
+			return;
+		try
+		{
+			connection.close();
+		}
+		catch (SQLException e)
+		{
+			// ignore
+		}
+	}
+
+	synchronized void logMetrics()
+	{
+		long averageWaitMicros = borrowCount == 0L ? 0L
+				: TimeUnit.NANOSECONDS.toMicros(totalWaitNanos / borrowCount);
+		log.info("Connection pool " + name + ": " + borrowCount + " connections handed out, " + openCount
+				+ " opened, " + discardCount + " discarded, peak " + peakInUse + " of " + maxSize
+				+ " in use, average wait " + averageWaitMicros + " us, max wait "
+				+ TimeUnit.NANOSECONDS.toMillis(maxWaitNanos) + " ms, total wait " + TimeUnit.NANOSECONDS.toMillis(totalWaitNanos) + " ms");
+	}
+
+	/**
+	 * Closes the idle connections of the pool. Connections that are still in
+	 * use are closed when they are returned.
+	 */
+	@Override
+	public void close()
+	{
+		List<PooledConnection> connections;
+		synchronized (this)
+		{
+			closed = true;
+			connections = new ArrayList<>(idle);
+			idle.clear();
+			size -= connections.size();
+			notifyAll();
+		}
+		for (PooledConnection pooled : connections)
+			closeQuietly(pooled.connection);
+		logMetrics();
+	}
+
+}
@@ -9,6 +9,11 @@ public class ConversionResult
 
 	private final long byteCount;
 
+	/**
+	 * The number of times a batch was written again after a transient error
+	 */
+	private final long retryCount;
+
 	private final long startTime;
 
 	private final long endTime;
@@ -20,19 +25,21 @@ public class ConversionResult
 	{
 		long recordCount = 0;
 		long byteCount = 0;
-		try
+		long retryCount = 0;
+		for (Future<ConversionResult> result : results)
 		{
-			for (Future<ConversionResult> result : results)
+			try
 			{
 				recordCount += result.get().recordCount;
 				byteCount += result.get().byteCount;
+				retryCount += result.get().retryCount;
+			}
+			catch (Exception e)
+			{
+				// ignore
 			}
 		}
-		catch (Exception e)
-		{
-			// ignore
-		}
-		return new ConversionResult(recordCount, byteCount, startTime, endTime, exception);
+		return new ConversionResult(recordCount, byteCount, retryCount, startTime, endTime, exception);
 	}
 
 	ConversionResult(long recordCount, long byteCount, long startTime, long endTime)
@@ -41,9 +48,16 @@ public class ConversionResult
 	}
 
 	ConversionResult(long recordCount, long byteCount, long startTime, long endTime, Exception exception)
+	{
+		this(recordCount, byteCount, 0L, startTime, endTime, exception);
+	}
+
+	ConversionResult(long recordCount, long byteCount, long retryCount, long startTime, long endTime,
+			Exception exception)
 	{
 		this.recordCount = recordCount;
 		this.byteCount = byteCount;
+		this.retryCount = retryCount;
 		this.startTime = startTime;
 		this.endTime = endTime;
 		this.exception = exception;
@@ -59,6 +73,11 @@ public class ConversionResult
 		return byteCount;
 	}
 
+	public long getRetryCount()
+	{
+		return retryCount;
+	}
+
 	public long getStartTime()
 	{
 		return startTime;
@@ -81,6 +100,10 @@ public class ConversionResult
 		res.append("Records: ").append(recordCount).append(", ");
 		res.append("Bytes: ").append(byteCount).append(", ");
 		res.append("Time: ").append((endTime - startTime)).append("ms");
+		if (retryCount > 0)
+		{
+			res.append(", Retries: ").append(retryCount);
+		}
 		if (exception != null)
 		{
 			res.append(", Exception: ").append(exception.getMessage());
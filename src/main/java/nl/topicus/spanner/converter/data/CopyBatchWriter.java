@@ -0,0 +1,263 @@
+package nl.topicus.spanner.converter.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+
+import nl.topicus.jdbc.shaded.com.google.cloud.ByteArray;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriteMode;
+
+/**
+ * Writes batches to a PostgreSQL destination using COPY ... FROM STDIN in CSV
+ * format. Each batch is copied and committed in its own transaction, so that a
+ * batch is committed as a whole just like with INSERT statements. All values
+ * are written as text, and are converted to the type of the destination
+ * column by PostgreSQL. Binary values are written in the hex format of bytea,
+ * arrays as array literals, and timestamps with the offset of the default time
+ * zone of the JVM, which is also what the JDBC driver sends for a timestamp
+ * parameter.
+ *
+ * COPY cannot update existing records. In InsertOrUpdate mode, each batch is
+ * therefore copied into a temporary staging table, and merged into the
+ * destination table with INSERT ... ON CONFLICT DO UPDATE in the same
+ * transaction. The staging table is emptied when the transaction commits.
+ */
+final class CopyBatchWriter extends AbstractBatchWriter
+{
+	private static final String COPY_FORMAT = "COPY $TABLE ($COLUMNS) FROM STDIN (FORMAT csv)";
+
+	private static final String CREATE_STAGING_FORMAT = "CREATE TEMPORARY TABLE IF NOT EXISTS $STAGING "
+			+ "(LIKE $TABLE INCLUDING DEFAULTS) ON COMMIT DELETE ROWS";
+
+	private static final String MERGE_FORMAT = "INSERT INTO $TABLE ($COLUMNS) SELECT $COLUMNS FROM $STAGING";
+
+	/**
+	 * The number of bytes that are buffered before they are sent to the server
+	 */
+	private static final int BUFFER_SIZE = 65536;
+
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter
+			.ofPattern("uuuu-MM-dd HH:mm:ss.SSSSSSSSSxxx");
+
+	private final Connection destination;
+
+	private final CopyManager copyManager;
+
+	private final String copy;
+
+	/**
+	 * The statement that merges the staging table into the destination table,
+	 * or null if the records are copied into the destination table directly
+	 */
+	private final String merge;
+
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE * 2);
+
+	CopyBatchWriter(ConverterConfiguration config, ConnectionFactory connectionFactory, String table, Columns columns)
+			throws SQLException
+	{
+		super(config, table, columns);
+		destination = connectionFactory.getDestinationConnection();
+		try
+		{
+			destination.setAutoCommit(false);
+			copyManager = destination.unwrap(PGConnection.class).getCopyAPI();
+			String target = table;
+			if (config.getWriteMode() == WriteMode.InsertOrUpdate)
+			{
+				target = "converter_staging_" + table.replaceAll("\\W", "_");
+				createStagingTable(target);
+				merge = MERGE_FORMAT.replace("$TABLE", table).replace("$STAGING", target)
+						.replace("$COLUMNS", columns.getColumnNames())
+						+ config.getDestinationDatabaseType().getInsertOrUpdateClause(columns.getPrimaryKeyCols(),
+								columns.getColumns());
+			}
+			else
+			{
+				merge = null;
+			}
+			copy = COPY_FORMAT.replace("$TABLE", target).replace("$COLUMNS", columns.getColumnNames());
+		}
+		catch (SQLException e)
+		{
+			destination.close();
+			throw e;
+		}
+	}
+
+	@Override
+	void write(RowBatch batch) throws Exception
+	{
+		CopyIn copyIn = copyManager.copyIn(copy);
+		try
+		{
+			buffer.reset();
+			Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+			for (Object[] row : batch.getRows())
+			{
+				for (int index = 0; index < row.length; index++)
+				{
+					if (index > 0)
+						writer.write(',');
+					writeValue(writer, row[index]);
+				}
+				writer.write('\n');
+				writer.flush();
+				if (buffer.size() >= BUFFER_SIZE)
+				{
+					copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+					buffer.reset();
+				}
+			}
+			if (buffer.size() > 0)
+				copyIn.writeToCopy(buffer.toByteArray(), 0, buffer.size());
+			copyIn.endCopy();
+		}
+		finally
+		{
+			if (copyIn.isActive())
+				copyIn.cancelCopy();
+		}
+		if (merge != null)
+		{
+			try (Statement statement = destination.createStatement())
+			{
+				statement.executeUpdate(merge);
+			}
+		}
+		destination.commit();
+	}
+
+	/**
+	 * Creates the staging table on the connection of this writer. Temporary
+	 * tables live as long as the session, so a pooled connection may already
+	 * have the staging table of an earlier writer of the same table.
+	 */
+	private void createStagingTable(String staging) throws SQLException
+	{
+		try (Statement statement = destination.createStatement())
+		{
+			statement.execute(CREATE_STAGING_FORMAT.replace("$STAGING", staging).replace("$TABLE", table));
+		}
+		destination.commit();
+	}
+
+	/**
+	 * Writes one value as a CSV field. NULL is written as an empty unquoted
+	 * field, all other values are quoted, so that an empty string is not read
+	 * as NULL.
+	 */
+	private static void writeValue(Writer writer, Object value) throws Exception
+	{
+		if (value == null)
+			return;
+		writer.write('"');
+		writer.write(toText(value).replace("\"", "\"\""));
+		writer.write('"');
+	}
+
+	/**
+	 * @return The value in the text format of PostgreSQL
+	 */
+	private static String toText(Object value) throws SQLException
+	{
+		if (value instanceof byte[])
+			return toHex((byte[]) value);
+		if (value instanceof ByteArray)
+			return toHex(((ByteArray) value).toByteArray());
+		if (value instanceof Timestamp)
+			return toText((Timestamp) value);
+		if (value instanceof Array)
+		{
+			Array array = (Array) value;
+			try
+			{
+				StringBuilder res = new StringBuilder();
+				appendArray(res, array.getArray());
+				return res.toString();
+			}
+			finally
+			{
+				array.free();
+			}
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @return The timestamp with the offset of the default time zone, so that
+	 *         it is written as the same instant to a timestamptz column, and
+	 *         as the same local time to a timestamp column
+	 */
+	private static String toText(Timestamp timestamp)
+	{
+		return OffsetDateTime.ofInstant(timestamp.toInstant(), ZoneId.systemDefault()).format(TIMESTAMP_FORMAT);
+	}
+
+	/**
+	 * Appends the elements of a Java array as a PostgreSQL array literal. All
+	 * elements except NULL are quoted. Nested arrays are written as the
+	 * sub-arrays of a multidimensional array.
+	 */
+	private static void appendArray(StringBuilder res, Object elements) throws SQLException
+	{
+		res.append('{');
+		int length = java.lang.reflect.Array.getLength(elements);
+		for (int index = 0; index < length; index++)
+		{
+			if (index > 0)
+				res.append(',');
+			Object element = java.lang.reflect.Array.get(elements, index);
+			if (element == null)
+				res.append("NULL");
+			else if (element.getClass().isArray() && !(element instanceof byte[]))
+				appendArray(res, element);
+			else
+				res.append('"').append(toText(element).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+		}
+		res.append('}');
+	}
+
+	/**
+	 * @return The value in the hex format of bytea
+	 */
+	private static String toHex(byte[] bytes)
+	{
+		char[] digits = "0123456789abcdef".toCharArray();
+		StringBuilder res = new StringBuilder(2 + bytes.length * 2);
+		res.append("\\x");
+		for (byte b : bytes)
+		{
+			res.append(digits[(b >> 4) & 0xF]);
+			res.append(digits[b & 0xF]);
+		}
+		return res.toString();
+	}
+
+	@Override
+	void reset() throws SQLException
+	{
+		destination.rollback();
+	}
+
+	@Override
+	public void close() throws SQLException
+	{
+		destination.close();
+	}
+
+}
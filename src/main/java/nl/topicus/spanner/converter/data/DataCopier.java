@@ -1,11 +1,11 @@
 package nl.topicus.spanner.converter.data;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -15,6 +15,10 @@ import java.util.logging.Logger;
 
 import nl.topicus.spanner.converter.ConvertMode;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.util.CloudSpannerClients;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
+import nl.topicus.spanner.converter.util.SchemaSnapshot;
 
 public class DataCopier
 {
@@ -24,6 +28,15 @@ public class DataCopier
 
 	private final ConverterConfiguration config;
 
+	private final SchemaSnapshot schemaSnapshot;
+
+	private SchemaCatalog schemaCatalog;
+
+	/**
+	 * The estimated number of bytes per record of the source tables
+	 */
+	private Map<String, Long> sourceBytesPerRecord;
+
 	private List<String> tables = new ArrayList<>();
 
 	private List<TableDeleter> deleters = new ArrayList<>();
@@ -34,16 +47,41 @@ public class DataCopier
 
 	private List<TablePreparer> copyPreparers = new ArrayList<>();
 
+	private Checkpoint checkpoint;
+
+	private ConnectionFactory connectionFactory;
+
 	public DataCopier(ConverterConfiguration config)
+	{
+		this(config, SchemaSnapshot.open(config));
+	}
+
+	public DataCopier(ConverterConfiguration config, SchemaSnapshot schemaSnapshot)
 	{
 		this.config = config;
+		this.schemaSnapshot = schemaSnapshot;
 	}
 
-	public void convert() throws SQLException
+	public void convert() throws SQLException, IOException
 	{
-		init();
-		deleteData();
-		copyData();
+		try
+		{
+			connectionFactory = ConnectionFactory.open(config);
+			init();
+			// The checkpoint is opened before any data is deleted, so that a
+			// journal that may not be overwritten stops the run first
+			checkpoint = Checkpoint.open(config, tables);
+			deleteData();
+			copyData();
+		}
+		finally
+		{
+			if (connectionFactory != null)
+				connectionFactory.close();
+			if (checkpoint != null)
+				checkpoint.close();
+			CloudSpannerClients.closeAll();
+		}
 	}
 
 	private void init() throws SQLException
@@ -59,36 +97,36 @@ public class DataCopier
 			createTableDeleters();
 			ConversionResult prepare = runWorkers(deletePreparers);
 			log.info("Preparing delete finished with result: " + prepare.toString());
-			ConversionResult run = runWorkers(deleters);
+			ConversionResult run = runTableWorkers(deleters);
 			log.info("Running delete finished with result: " + run.toString());
 		}
 	}
 
 	private void copyData() throws SQLException
 	{
+		try (Connection source = connectionFactory.getSourceConnection())
+		{
+			sourceBytesPerRecord = schemaSnapshot.getStatistics(source, config.getUrlSource(),
+					config.getSourceDatabaseType(), config.getCatalog(), config.getSchema());
+		}
 		createTableWorkers();
 		ConversionResult prepare = runWorkers(copyPreparers);
 		log.info("Preparing copy finished with result: " + prepare.toString());
-		ConversionResult run = runWorkers(copiers);
+		schemaSnapshot.save();
+		ConversionResult run = runTableWorkers(copiers);
 		log.info("Running copy finished with result: " + run.toString());
 	}
 
 	private void initTables() throws SQLException
 	{
-		try (Connection destination = DriverManager.getConnection(config.getUrlDestination()))
-		{
-			try (ResultSet rs = destination.getMetaData().getTables(config.getCatalog(), config.getSchema(), null,
-					new String[] { "TABLE" }))
-			{
-				while (rs.next())
-				{
-					String tableSchema = rs.getString("TABLE_SCHEM");
-					if (!config.getDestinationDatabaseType().isSystemSchema(tableSchema))
-					{
-						tables.add(rs.getString("TABLE_NAME"));
-					}
-				}
-			}
+		try (Connection destination = connectionFactory.getDestinationConnection())
+		{
+			schemaCatalog = schemaSnapshot.getCatalog(destination, config.getUrlDestination(),
+					config.getDestinationDatabaseType(), config.getCatalog(), config.getSchema());
+		}
+		for (TableMetadata table : schemaCatalog.getTables())
+		{
+			tables.add(table.getName());
 		}
 	}
 
@@ -96,9 +134,9 @@ public class DataCopier
 	{
 		for (String table : tables)
 		{
-			TableDeleter worker = new TableDeleter(table, config);
+			TableDeleter worker = new TableDeleter(table, config, schemaCatalog, connectionFactory);
 			deleters.add(worker);
-			deletePreparers.add(new TablePreparer(config, worker));
+			deletePreparers.add(new TablePreparer(connectionFactory, worker));
 		}
 	}
 
@@ -106,10 +144,56 @@ public class DataCopier
 	{
 		for (String table : tables)
 		{
-			TableWorker worker = new TableWorker(table, config);
+			TableWorker worker = new TableWorker(table, config, schemaCatalog, sourceBytesPerRecord, checkpoint,
+					connectionFactory);
 			copiers.add(worker);
-			copyPreparers.add(new TablePreparer(config, worker));
+			copyPreparers.add(new TablePreparer(connectionFactory, worker));
+		}
+	}
+
+	/**
+	 * Runs the part workers of all given tables on one shared scheduler. The
+	 * part workers are submitted in the order of a largest-first plan, so
+	 * that the largest parts of the largest tables do not start last.
+	 */
+	private ConversionResult runTableWorkers(List<? extends AbstractTableWorker> tableWorkers)
+	{
+		Exception exception = null;
+		WorkScheduler scheduler = new WorkScheduler(config);
+		long startTime = System.currentTimeMillis();
+		SchedulePlan plan = new SchedulePlan(tableWorkers, config.getMaxConcurrentWorkers());
+		plan.log();
+		for (SchedulePlan.Task task : plan.getTasks())
+		{
+			task.submit(scheduler);
+		}
+		try
+		{
+			if (!scheduler.shutdownAndAwait(config.getTableWorkerMaxWaitInMinutes(), TimeUnit.MINUTES))
+				log.severe("Not all workers finished within " + config.getTableWorkerMaxWaitInMinutes() + " minutes");
+		}
+		catch (InterruptedException e)
+		{
+			exception = e;
+			log.severe("Error while waiting for workers to finish: " + e.getMessage());
+		}
+		finally
+		{
+			scheduler.shutdownNow();
+		}
+		long endTime = System.currentTimeMillis();
+		long recordCount = 0;
+		long byteCount = 0;
+		long retryCount = 0;
+		for (AbstractTableWorker worker : tableWorkers)
+		{
+			ConversionResult result = worker.collectResult();
+			log.info("Table " + worker.getTable() + " finished with result: " + result.toString());
+			recordCount += result.getRecordCount();
+			byteCount += result.getByteCount();
+			retryCount += result.getRetryCount();
 		}
+		return new ConversionResult(recordCount, byteCount, retryCount, startTime, endTime, exception);
 	}
 
 	private ConversionResult runWorkers(List<? extends Callable<ConversionResult>> callables)
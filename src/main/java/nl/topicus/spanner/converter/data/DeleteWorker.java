@@ -1,7 +1,6 @@
 package nl.topicus.spanner.converter.data;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -14,6 +13,8 @@ public class DeleteWorker extends AbstractTablePartWorker
 {
 	private static final Logger log = Logger.getLogger(DeleteWorker.class.getName());
 
+	private final ConnectionFactory connectionFactory;
+
 	private String selectFormat = "SELECT $COLUMNS FROM $TABLE WHERE $WHERE_CLAUSE ORDER BY $PRIMARY_KEY LIMIT $BATCH_SIZE";
 
 	private Columns columns;
@@ -28,10 +29,11 @@ public class DeleteWorker extends AbstractTablePartWorker
 
 	private long recordCount;
 
-	DeleteWorker(ConverterConfiguration config, String table, Columns columns, List<Object> beginKey,
-			List<Object> endKey, long numberOfRecordsToDelete, int batchSize)
+	DeleteWorker(ConverterConfiguration config, ConnectionFactory connectionFactory, String table, Columns columns,
+			List<Object> beginKey, List<Object> endKey, long numberOfRecordsToDelete, int batchSize)
 	{
 		super(config, table, numberOfRecordsToDelete);
+		this.connectionFactory = connectionFactory;
 		this.columns = columns;
 		this.beginKey = beginKey;
 		this.endKey = endKey;
@@ -42,8 +44,8 @@ public class DeleteWorker extends AbstractTablePartWorker
 	@Override
 	public void run() throws SQLException
 	{
-		try (Connection destination = DriverManager.getConnection(config.getUrlDestination());
-				Connection selectConnection = DriverManager.getConnection(config.getUrlDestination()))
+		try (Connection destination = connectionFactory.getDestinationConnection();
+				Connection selectConnection = connectionFactory.getDestinationConnection())
 		{
 			log.fine(table + ": Starting deleting " + numberOfRecordsToDelete + " records");
 			selectConnection.setReadOnly(true);
@@ -63,7 +65,10 @@ public class DeleteWorker extends AbstractTablePartWorker
 			int limit = batchSize;
 			String select = selectFormat.replace("$COLUMNS", columns.getPrimaryKeyColumns(table + "."));
 			select = select.replace("$TABLE", table);
-			select = select.replace("$WHERE_CLAUSE", columns.getPrimaryKeyColumnsWhereClause(table + "."));
+			// A worker without an end key deletes all records from its begin
+			// key
+			boolean bounded = !endKey.isEmpty();
+			select = select.replace("$WHERE_CLAUSE", columns.getPrimaryKeyColumnsWhereClause(table + ".", bounded));
 			select = select.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
 			select = select.replace("$BATCH_SIZE", String.valueOf(limit));
 			PreparedStatement selectStatement = selectConnection.prepareStatement(select);
@@ -105,7 +110,7 @@ public class DeleteWorker extends AbstractTablePartWorker
 				}
 				destination.commit();
 				log.fine(table + ": Records deleted so far: " + recordCount + " of " + numberOfRecordsToDelete);
-				if (recordCount >= numberOfRecordsToDelete || !recordsFound)
+				if ((bounded && recordCount >= numberOfRecordsToDelete) || !recordsFound)
 					break;
 			}
 			this.recordCount = recordCount;
@@ -114,11 +119,18 @@ public class DeleteWorker extends AbstractTablePartWorker
 		log.fine(table + ": Finished deleting");
 	}
 
+	@Override
 	public long getRecordCount()
 	{
 		return recordCount;
 	}
 
+	@Override
+	protected int getRequiredConnections()
+	{
+		return 2;
+	}
+
 	@Override
 	protected long getByteCount()
 	{
@@ -0,0 +1,84 @@
+package nl.topicus.spanner.converter.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriteMode;
+
+/**
+ * Writes batches using INSERT statements over a JDBC connection. In
+ * InsertOrUpdate mode, the statements update the records that already exist.
+ */
+final class JdbcBatchWriter extends AbstractBatchWriter
+{
+	private final Connection destination;
+
+	private final PreparedStatement statement;
+
+	private final int[] types;
+
+	private final ColumnBinder[] binders;
+
+	JdbcBatchWriter(ConverterConfiguration config, ConnectionFactory connectionFactory, String table, Columns columns)
+			throws SQLException
+	{
+		super(config, table, columns);
+		types = columns.getColumnTypeArray();
+		binders = ColumnBinder.compile(types);
+		destination = connectionFactory.getDestinationConnection();
+		try
+		{
+			destination.setAutoCommit(false);
+			String sql = "INSERT INTO " + table + " (" + columns.getColumnNames() + ") VALUES \n";
+			sql = sql + "(" + columns.getColumnParameters() + ")";
+			if (config.getWriteMode() == WriteMode.InsertOrUpdate)
+				sql = sql + config.getDestinationDatabaseType().getInsertOrUpdateClause(columns.getPrimaryKeyCols(),
+						columns.getColumns());
+			statement = destination.prepareStatement(sql);
+		}
+		catch (SQLException e)
+		{
+			destination.close();
+			throw e;
+		}
+	}
+
+	@Override
+	void write(RowBatch batch) throws SQLException
+	{
+		for (Object[] row : batch.getRows())
+		{
+			for (int index = 0; index < row.length; index++)
+			{
+				if (row[index] == null)
+					statement.setNull(index + 1, types[index]);
+				else
+					binders[index].bind(statement, index + 1, row[index], types[index]);
+			}
+			if (config.isUseJdbcBatching())
+				statement.addBatch();
+			else
+				statement.executeUpdate();
+		}
+		if (config.isUseJdbcBatching())
+			statement.executeBatch();
+		destination.commit();
+	}
+
+	@Override
+	void reset() throws SQLException
+	{
+		statement.clearBatch();
+		statement.clearParameters();
+		destination.rollback();
+	}
+
+	@Override
+	public void close() throws SQLException
+	{
+		destination.close();
+	}
+
+}
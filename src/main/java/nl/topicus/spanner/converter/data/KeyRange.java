@@ -0,0 +1,60 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.List;
+
+/**
+ * A range of primary keys [beginKey, endKey) of a table. A null begin or end
+ * key means that the range is unbounded on that side. The begin key may also
+ * be exclusive, for example when the range is the unfinished part of a range
+ * that has been partially copied.
+ */
+final class KeyRange
+{
+	private final List<Object> beginKey;
+
+	private final boolean beginInclusive;
+
+	private final List<Object> endKey;
+
+	private final long estimatedRecordCount;
+
+	KeyRange(List<Object> beginKey, List<Object> endKey, long estimatedRecordCount)
+	{
+		this(beginKey, true, endKey, estimatedRecordCount);
+	}
+
+	KeyRange(List<Object> beginKey, boolean beginInclusive, List<Object> endKey, long estimatedRecordCount)
+	{
+		this.beginKey = beginKey;
+		this.beginInclusive = beginInclusive;
+		this.endKey = endKey;
+		this.estimatedRecordCount = estimatedRecordCount;
+	}
+
+	List<Object> getBeginKey()
+	{
+		return beginKey;
+	}
+
+	boolean isBeginInclusive()
+	{
+		return beginInclusive;
+	}
+
+	List<Object> getEndKey()
+	{
+		return endKey;
+	}
+
+	long getEstimatedRecordCount()
+	{
+		return estimatedRecordCount;
+	}
+
+	@Override
+	public String toString()
+	{
+		return (beginInclusive ? "[" : "(") + (beginKey == null ? "-" : beginKey) + ", "
+				+ (endKey == null ? "-" : endKey) + ")";
+	}
+}
@@ -0,0 +1,190 @@
+package nl.topicus.spanner.converter.data;
+
+import java.math.BigInteger;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+
+/**
+ * Splits a table into ranges of primary keys that can be copied in parallel.
+ * The boundaries of the ranges are calculated up front, so that each worker
+ * can read its range using an index range scan instead of an OFFSET scan.
+ */
+final class KeyRangeSplitter
+{
+	private static final Logger log = Logger.getLogger(KeyRangeSplitter.class.getName());
+
+	private static final String MIN_MAX_FORMAT = "SELECT MIN($PRIMARY_KEY), MAX($PRIMARY_KEY) FROM $TABLE";
+
+	private static final String SAMPLE_FORMAT = "SELECT $COLUMNS FROM $TABLE TABLESAMPLE SYSTEM ($PERCENTAGE) ORDER BY $PRIMARY_KEY";
+
+	/**
+	 * The number of sampled keys per range that is aimed for when sampling
+	 * quantiles
+	 */
+	private static final int SAMPLES_PER_RANGE = 100;
+
+	private final ConverterConfiguration config;
+
+	KeyRangeSplitter(ConverterConfiguration config)
+	{
+		this.config = config;
+	}
+
+	/**
+	 * Splits the given table into at most numberOfRanges key ranges. Tables
+	 * with a single primary key column that is an integer column in the source
+	 * are split using MIN/MAX arithmetic. Other PostgreSQL tables are split
+	 * using quantiles of a sample of the table. All other tables are split by
+	 * seeking from one boundary to the next.
+	 */
+	List<KeyRange> split(Connection source, String tableSpec, Columns columns, long totalRecordCount,
+			int numberOfRanges) throws SQLException
+	{
+		if (numberOfRanges <= 1 || totalRecordCount == 0)
+			return Collections.singletonList(new KeyRange(null, null, totalRecordCount));
+
+		List<List<Object>> boundaries = null;
+		if (columns.getPrimaryKeyCols().size() == 1)
+		{
+			boundaries = splitIntegerKey(source, tableSpec, columns, numberOfRanges);
+		}
+		if (boundaries == null && config.getSourceDatabaseType() == DatabaseType.PostgreSQL)
+		{
+			boundaries = splitSampledKey(source, tableSpec, columns, totalRecordCount, numberOfRanges);
+		}
+		if (boundaries == null)
+		{
+			boundaries = splitBySeeking(source, tableSpec, columns, totalRecordCount, numberOfRanges);
+		}
+		return createRanges(boundaries, totalRecordCount);
+	}
+
+	private static boolean isIntegerType(int type)
+	{
+		return type == Types.BIGINT || type == Types.INTEGER || type == Types.SMALLINT || type == Types.TINYINT;
+	}
+
+	/**
+	 * Calculates the boundaries by dividing the difference between the lowest
+	 * and the highest key into equal steps. The type of the key is taken from
+	 * the source, as the destination column may have another type.
+	 *
+	 * @return The boundaries, or null if the primary key is not an integer
+	 *         column in the source
+	 */
+	private List<List<Object>> splitIntegerKey(Connection source, String tableSpec, Columns columns,
+			int numberOfRanges) throws SQLException
+	{
+		String select = MIN_MAX_FORMAT.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
+		select = select.replace("$TABLE", tableSpec);
+		BigInteger min;
+		BigInteger max;
+		try (ResultSet rs = source.createStatement().executeQuery(select))
+		{
+			if (!isIntegerType(rs.getMetaData().getColumnType(1)))
+				return null;
+			if (!rs.next() || rs.getObject(1) == null)
+				return Collections.emptyList();
+			min = BigInteger.valueOf(rs.getLong(1));
+			max = BigInteger.valueOf(rs.getLong(2));
+		}
+		BigInteger step = max.subtract(min).add(BigInteger.ONE).divide(BigInteger.valueOf(numberOfRanges));
+		List<List<Object>> boundaries = new ArrayList<>(numberOfRanges - 1);
+		if (step.signum() == 0)
+			return boundaries;
+		for (int i = 1; i < numberOfRanges; i++)
+		{
+			Object boundary = Long.valueOf(min.add(step.multiply(BigInteger.valueOf(i))).longValue());
+			boundaries.add(Arrays.asList(boundary));
+		}
+		return boundaries;
+	}
+
+	/**
+	 * Calculates the boundaries from the quantiles of a random sample of the
+	 * table.
+	 *
+	 * @return The boundaries, or null if the table could not be sampled
+	 */
+	private List<List<Object>> splitSampledKey(Connection source, String tableSpec, Columns columns,
+			long totalRecordCount, int numberOfRanges)
+	{
+		double percentage = Math.min(100d, 100d * SAMPLES_PER_RANGE * numberOfRanges / totalRecordCount);
+		String select = SAMPLE_FORMAT.replace("$COLUMNS", columns.getPrimaryKeyColumns());
+		select = select.replace("$TABLE", tableSpec);
+		select = select.replace("$PERCENTAGE", String.format(Locale.ROOT, "%.6f", percentage));
+		select = select.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
+		List<List<Object>> samples = new ArrayList<>();
+		try (ResultSet rs = source.createStatement().executeQuery(select))
+		{
+			while (rs.next())
+			{
+				List<Object> key = new ArrayList<>(columns.getPrimaryKeyCols().size());
+				for (int i = 1; i <= columns.getPrimaryKeyCols().size(); i++)
+					key.add(rs.getObject(i));
+				samples.add(key);
+			}
+		}
+		catch (SQLException e)
+		{
+			log.warning("Could not sample table " + tableSpec + ": " + e.getMessage());
+			return null;
+		}
+		if (samples.size() < numberOfRanges)
+			return null;
+		List<List<Object>> boundaries = new ArrayList<>(numberOfRanges - 1);
+		for (int i = 1; i < numberOfRanges; i++)
+		{
+			List<Object> boundary = samples.get((int) ((long) i * samples.size() / numberOfRanges));
+			if (boundaries.isEmpty() || !boundaries.get(boundaries.size() - 1).equals(boundary))
+				boundaries.add(boundary);
+		}
+		return boundaries;
+	}
+
+	private List<List<Object>> splitBySeeking(Connection source, String tableSpec, Columns columns,
+			long totalRecordCount, int numberOfRanges) throws SQLException
+	{
+		KeysetPaginator paginator = new KeysetPaginator(columns, "", config.getSourceDatabaseType(),
+				columns.getPrimaryKeyColumnIndices());
+		long recordsPerRange = totalRecordCount / numberOfRanges;
+		List<List<Object>> boundaries = new ArrayList<>(numberOfRanges - 1);
+		List<Object> previous = null;
+		for (int i = 1; i < numberOfRanges; i++)
+		{
+			List<Object> boundary = paginator.findKey(source, tableSpec, previous,
+					previous == null ? ">" : ">=", recordsPerRange);
+			if (boundary.isEmpty())
+				break;
+			boundaries.add(boundary);
+			previous = boundary;
+		}
+		return boundaries;
+	}
+
+	private List<KeyRange> createRanges(List<List<Object>> boundaries, long totalRecordCount)
+	{
+		long estimatedRecordCount = totalRecordCount / (boundaries.size() + 1) + 1;
+		List<KeyRange> ranges = new ArrayList<>(boundaries.size() + 1);
+		List<Object> begin = null;
+		for (List<Object> boundary : boundaries)
+		{
+			ranges.add(new KeyRange(begin, boundary, estimatedRecordCount));
+			begin = boundary;
+		}
+		ranges.add(new KeyRange(begin, null, estimatedRecordCount));
+		return ranges;
+	}
+
+}
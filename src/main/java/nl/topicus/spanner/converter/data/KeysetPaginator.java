@@ -0,0 +1,182 @@
+package nl.topicus.spanner.converter.data;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+
+/**
+ * Builds and binds the statements needed to page through a table in primary
+ * key order by seeking past the last key that was read, instead of skipping
+ * rows with an OFFSET clause. Seeking only reads the rows that are actually
+ * returned, while an OFFSET scan reads and discards all preceding rows.
+ */
+final class KeysetPaginator
+{
+	static final String SEEK_SELECT_FORMAT = "SELECT $COLUMNS FROM $TABLE WHERE $WHERE_CLAUSE ORDER BY $PRIMARY_KEY LIMIT $BATCH_SIZE";
+
+	private static final String KEY_SELECT_FORMAT = "SELECT $COLUMNS FROM $TABLE ORDER BY $PRIMARY_KEY LIMIT 1 OFFSET $OFFSET";
+
+	private static final String KEY_SEEK_SELECT_FORMAT = "SELECT $COLUMNS FROM $TABLE WHERE $WHERE_CLAUSE ORDER BY $PRIMARY_KEY LIMIT 1 OFFSET $OFFSET";
+
+	private final Columns columns;
+
+	private final String prefix;
+
+	private final boolean useRowValues;
+
+	private final int[] keyIndices;
+
+	/**
+	 * @param columns
+	 *            The columns of the table, including the primary key columns
+	 * @param prefix
+	 *            The prefix to use for the primary key columns in the where
+	 *            clause
+	 * @param databaseType
+	 *            The type of database the select statements will be executed on
+	 * @param keyIndices
+	 *            The (1-based) positions of the primary key columns in the
+	 *            result sets that will be read
+	 */
+	KeysetPaginator(Columns columns, String prefix, DatabaseType databaseType, int[] keyIndices)
+	{
+		this.columns = columns;
+		this.prefix = prefix;
+		this.useRowValues = databaseType.supportsRowValueComparison();
+		this.keyIndices = keyIndices;
+	}
+
+	String getWhereClause(String operator)
+	{
+		return columns.getPrimaryKeyComparisonClause(prefix, operator, useRowValues);
+	}
+
+	/**
+	 * Sets the parameters of a where clause created by
+	 * {@link #getWhereClause(String)}
+	 *
+	 * @return The index of the next parameter
+	 */
+	int setKeyParameters(PreparedStatement statement, int startIndex, List<Object> key) throws SQLException
+	{
+		int index = startIndex;
+		for (Object value : getKeyParameters(key))
+		{
+			statement.setObject(index, value);
+			index++;
+		}
+		return index;
+	}
+
+	/**
+	 * @return The values of the parameters of a where clause created by
+	 *         {@link #getWhereClause(String)}, in the order of the parameters
+	 */
+	List<Object> getKeyParameters(List<Object> key)
+	{
+		if (useRowValues)
+			return key;
+		List<Object> res = new ArrayList<>(key.size() * (key.size() + 1) / 2);
+		for (int i = 0; i < key.size(); i++)
+		{
+			for (int j = 0; j <= i; j++)
+				res.add(key.get(j));
+		}
+		return res;
+	}
+
+	/**
+	 * Finds the primary key of the record at the given offset from the given
+	 * key
+	 *
+	 * @param table
+	 *            The table to search
+	 * @param fromKey
+	 *            The key to start from. If null or empty, the search will start
+	 *            at the first record of the table
+	 * @param operator
+	 *            The operator to compare the keys of the table with the given
+	 *            key, either &gt; or &gt;=
+	 * @param offset
+	 *            The number of records to skip
+	 * @return The key that was found, or an empty list if there is no record
+	 *         at the given offset
+	 */
+	List<Object> findKey(Connection connection, String table, List<Object> fromKey, String operator, long offset)
+			throws SQLException
+	{
+		return findKey(connection, table, fromKey, operator, null, offset);
+	}
+
+	/**
+	 * Finds the primary key of the record at the given offset from the given
+	 * key, only considering records before the given end key
+	 *
+	 * @param endKey
+	 *            The (exclusive) key to end the search at. If null, the search
+	 *            will end at the last record of the table
+	 * @see #findKey(Connection, String, List, String, long)
+	 */
+	List<Object> findKey(Connection connection, String table, List<Object> fromKey, String operator,
+			List<Object> endKey, long offset) throws SQLException
+	{
+		boolean seek = fromKey != null && !fromKey.isEmpty();
+		List<String> clauses = new ArrayList<>(2);
+		if (seek)
+			clauses.add(getWhereClause(operator));
+		if (endKey != null)
+			clauses.add(getWhereClause("<"));
+		String select = (clauses.isEmpty() ? KEY_SELECT_FORMAT : KEY_SEEK_SELECT_FORMAT).replace("$COLUMNS",
+				columns.getPrimaryKeyColumns(prefix));
+		select = select.replace("$TABLE", table);
+		select = select.replace("$WHERE_CLAUSE", String.join(" AND ", clauses));
+		select = select.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
+		select = select.replace("$OFFSET", String.valueOf(offset));
+		List<Object> key = new ArrayList<>(columns.getPrimaryKeyCols().size());
+		try (PreparedStatement statement = connection.prepareStatement(select))
+		{
+			int index = 1;
+			if (seek)
+				index = setKeyParameters(statement, index, fromKey);
+			if (endKey != null)
+				setKeyParameters(statement, index, endKey);
+			try (ResultSet rs = statement.executeQuery())
+			{
+				if (rs.next())
+				{
+					for (int i = 1; i <= columns.getPrimaryKeyCols().size(); i++)
+						key.add(rs.getObject(i));
+				}
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * Gets the primary key of a row that has been read from a result set
+	 */
+	List<Object> getKey(Object[] row)
+	{
+		List<Object> key = new ArrayList<>(keyIndices.length);
+		for (int index : keyIndices)
+			key.add(row[index - 1]);
+		return key;
+	}
+
+	/**
+	 * Reads the primary key of the current row of a result set
+	 */
+	List<Object> getKey(ResultSet rs) throws SQLException
+	{
+		List<Object> key = new ArrayList<>(keyIndices.length);
+		for (int index : keyIndices)
+			key.add(rs.getObject(index));
+		return key;
+	}
+
+}
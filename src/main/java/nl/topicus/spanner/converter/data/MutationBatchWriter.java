@@ -0,0 +1,182 @@
+package nl.topicus.spanner.converter.data;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import nl.topicus.jdbc.shaded.com.google.cloud.ByteArray;
+import nl.topicus.jdbc.shaded.com.google.cloud.Date;
+import nl.topicus.jdbc.shaded.com.google.cloud.Timestamp;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.DatabaseClient;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.Mutation;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.Mutation.WriteBuilder;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.ValueBinder;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriteMode;
+import nl.topicus.spanner.converter.util.CloudSpannerClients;
+
+/**
+ * Writes batches directly as Cloud Spanner mutations, without generating and
+ * parsing INSERT statements.
+ *
+ * Cloud Spanner has no exact numeric type, so DECIMAL and NUMERIC values are
+ * written as FLOAT64 and are rounded to the nearest double. The first value of
+ * a writer that cannot be represented exactly is logged. Tables with ARRAY
+ * columns are rejected when the table is prepared, as the element type of the
+ * columns is not known.
+ */
+final class MutationBatchWriter extends AbstractBatchWriter
+{
+	private static final Logger log = Logger.getLogger(MutationBatchWriter.class.getName());
+
+	private final DatabaseClient client;
+
+	private final List<String> names;
+
+	private final int[] types;
+
+	private final boolean insertOrUpdate;
+
+	private boolean precisionLossLogged;
+
+	MutationBatchWriter(ConverterConfiguration config, String table, Columns columns) throws IOException
+	{
+		super(config, table, columns);
+		this.client = CloudSpannerClients.get(config.getUrlDestination()).getDatabaseClient();
+		this.names = columns.getColumns();
+		this.types = columns.getColumnTypeArray();
+		this.insertOrUpdate = config.getWriteMode() == WriteMode.InsertOrUpdate;
+	}
+
+	@Override
+	void write(RowBatch batch)
+	{
+		List<Mutation> mutations = new ArrayList<>(batch.size());
+		for (Object[] row : batch.getRows())
+		{
+			WriteBuilder builder = insertOrUpdate ? Mutation.newInsertOrUpdateBuilder(table)
+					: Mutation.newInsertBuilder(table);
+			for (int index = 0; index < row.length; index++)
+			{
+				setValue(builder.set(names.get(index)), index, row[index]);
+			}
+			mutations.add(builder.build());
+		}
+		client.writeAtLeastOnce(mutations);
+	}
+
+	private void setValue(ValueBinder<WriteBuilder> binder, int index, Object value)
+	{
+		switch (types[index])
+		{
+		case Types.BOOLEAN:
+		case Types.BIT:
+			binder.to(value == null ? null : (Boolean) value);
+			break;
+		case Types.BIGINT:
+		case Types.INTEGER:
+		case Types.SMALLINT:
+		case Types.TINYINT:
+			binder.to(value == null ? null : Long.valueOf(((Number) value).longValue()));
+			break;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+		case Types.REAL:
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			binder.to(value == null ? null : toDouble(index, (Number) value));
+			break;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			binder.to(value == null ? null : toByteArray(value));
+			break;
+		case Types.DATE:
+			binder.to(value == null ? null : toDate(index, value));
+			break;
+		case Types.TIMESTAMP:
+		case Types.TIME:
+			binder.to(value == null ? null : toTimestamp(value));
+			break;
+		default:
+			binder.to(value == null ? null : value.toString());
+			break;
+		}
+	}
+
+	private Double toDouble(int index, Number value)
+	{
+		double res = value.doubleValue();
+		if (value instanceof BigDecimal && !precisionLossLogged)
+		{
+			BigDecimal decimal = (BigDecimal) value;
+			if (Double.isInfinite(res) || BigDecimal.valueOf(res).compareTo(decimal) != 0)
+			{
+				log.warning(table + "." + names.get(index) + ": Value " + decimal.toPlainString()
+						+ " cannot be represented exactly as FLOAT64 and is written as " + res
+						+ ". Further rounded values of this writer are not logged.");
+				precisionLossLogged = true;
+			}
+		}
+		return Double.valueOf(res);
+	}
+
+	private static ByteArray toByteArray(Object value)
+	{
+		if (value instanceof ByteArray)
+			return (ByteArray) value;
+		if (value instanceof UUID)
+		{
+			UUID uuid = (UUID) value;
+			ByteBuffer buffer = ByteBuffer.allocate(16);
+			buffer.putLong(uuid.getMostSignificantBits());
+			buffer.putLong(uuid.getLeastSignificantBits());
+			return ByteArray.copyFrom(buffer.array());
+		}
+		return ByteArray.copyFrom((byte[]) value);
+	}
+
+	private Date toDate(int index, Object value)
+	{
+		if (value instanceof Date)
+			return (Date) value;
+		LocalDate date;
+		if (value instanceof LocalDate)
+			date = (LocalDate) value;
+		else if (value instanceof java.sql.Date)
+			date = ((java.sql.Date) value).toLocalDate();
+		else if (value instanceof java.sql.Timestamp)
+			date = ((java.sql.Timestamp) value).toLocalDateTime().toLocalDate();
+		else if (value instanceof java.util.Date)
+			date = new java.sql.Date(((java.util.Date) value).getTime()).toLocalDate();
+		else if (value instanceof String)
+			date = LocalDate.parse((String) value);
+		else
+			throw new IllegalArgumentException(table + "." + names.get(index) + ": Cannot convert a value of type "
+					+ value.getClass().getName() + " to a DATE");
+		return Date.fromYearMonthDay(date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+	}
+
+	private static Timestamp toTimestamp(Object value)
+	{
+		if (value instanceof Timestamp)
+			return (Timestamp) value;
+		if (value instanceof java.sql.Timestamp)
+			return Timestamp.of((java.sql.Timestamp) value);
+		return Timestamp.of(new java.sql.Timestamp(((java.util.Date) value).getTime()));
+	}
+
+	@Override
+	public void close()
+	{
+		// The client is shared by all writers
+	}
+
+}
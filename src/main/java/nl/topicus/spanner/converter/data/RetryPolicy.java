@@ -0,0 +1,122 @@
+package nl.topicus.spanner.converter.data;
+
+import java.sql.SQLException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLTransientException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.ErrorCode;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.SpannerException;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+
+/**
+ * Decides whether a batch that could not be written should be written again,
+ * and how long to wait before doing so. An error is retryable if it is
+ * transient: an aborted transaction, a serialization failure or deadlock, an
+ * unavailable server, a deadline that was exceeded, or a broken connection.
+ * All other errors, such as constraint violations, are fatal.
+ *
+ * The delay before each retry is chosen at random between zero and an
+ * exponentially growing maximum (full jitter), so that the writers that failed
+ * at the same moment do not all retry at the same moment.
+ */
+final class RetryPolicy
+{
+	private static final long MAX_DELAY_MILLIS = 32000L;
+
+	/**
+	 * The gRPC status codes of transient errors: DEADLINE_EXCEEDED,
+	 * RESOURCE_EXHAUSTED, ABORTED and UNAVAILABLE
+	 */
+	private static final int[] RETRYABLE_STATUS_CODES = { 4, 8, 10, 14 };
+
+	private final int maxRetries;
+
+	private final long initialDelayMillis;
+
+	private final boolean cloudSpanner;
+
+	RetryPolicy(ConverterConfiguration config)
+	{
+		this.maxRetries = config.getMaxRetries();
+		this.initialDelayMillis = Math.max(config.getRetryInitialDelayMillis(), 1L);
+		this.cloudSpanner = config.getDestinationDatabaseType() == DatabaseType.CloudSpanner;
+	}
+
+	/**
+	 * @param e
+	 *            The error of the last attempt
+	 * @param attempt
+	 *            The number of attempts that have failed so far
+	 * @return true if the batch should be written again
+	 */
+	boolean shouldRetry(Exception e, int attempt)
+	{
+		return attempt <= maxRetries && isRetryable(e);
+	}
+
+	/**
+	 * Waits before the next attempt
+	 *
+	 * @param attempt
+	 *            The number of attempts that have failed so far
+	 */
+	void backoff(int attempt) throws InterruptedException
+	{
+		long maxDelay = initialDelayMillis << Math.min(attempt - 1, 30);
+		if (maxDelay <= 0L || maxDelay > MAX_DELAY_MILLIS)
+			maxDelay = MAX_DELAY_MILLIS;
+		Thread.sleep(ThreadLocalRandom.current().nextLong(maxDelay + 1L));
+	}
+
+	boolean isRetryable(Throwable e)
+	{
+		for (Throwable cause = e; cause != null; cause = cause.getCause())
+		{
+			if (cause instanceof SpannerException && isRetryable(((SpannerException) cause).getErrorCode()))
+				return true;
+			if (cause instanceof SQLException)
+			{
+				SQLException sqlException = (SQLException) cause;
+				while (sqlException != null)
+				{
+					if (isRetryable(sqlException))
+						return true;
+					sqlException = sqlException.getNextException();
+				}
+			}
+		}
+		return false;
+	}
+
+	private boolean isRetryable(SQLException e)
+	{
+		if (e instanceof SQLTransientException || e instanceof SQLRecoverableException)
+			return true;
+		String state = e.getSQLState();
+		// Transaction rollback (serialization failure, deadlock), connection
+		// exception, insufficient resources and an administrator shutdown
+		if (state != null && (state.startsWith("40") || state.startsWith("08") || state.startsWith("53")
+				|| state.equals("57P01")))
+			return true;
+		// The Cloud Spanner JDBC driver reports the status code of the failed
+		// call as the vendor error code
+		if (cloudSpanner)
+		{
+			for (int code : RETRYABLE_STATUS_CODES)
+			{
+				if (e.getErrorCode() == code)
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isRetryable(ErrorCode code)
+	{
+		return code == ErrorCode.ABORTED || code == ErrorCode.UNAVAILABLE || code == ErrorCode.DEADLINE_EXCEEDED
+				|| code == ErrorCode.RESOURCE_EXHAUSTED;
+	}
+
+}
@@ -0,0 +1,58 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.List;
+
+/**
+ * A batch of records that has been read from the source database and that
+ * should be written to the destination database in one transaction.
+ */
+final class RowBatch
+{
+	private final List<Object[]> rows;
+
+	private final long byteSize;
+
+	private final List<Object> lastKey;
+
+	private final long sequence;
+
+	RowBatch(List<Object[]> rows, long byteSize, List<Object> lastKey, long sequence)
+	{
+		this.rows = rows;
+		this.byteSize = byteSize;
+		this.lastKey = lastKey;
+		this.sequence = sequence;
+	}
+
+	List<Object[]> getRows()
+	{
+		return rows;
+	}
+
+	int size()
+	{
+		return rows.size();
+	}
+
+	long getByteSize()
+	{
+		return byteSize;
+	}
+
+	/**
+	 * @return The primary key of the last record of the batch
+	 */
+	List<Object> getLastKey()
+	{
+		return lastKey;
+	}
+
+	/**
+	 * @return The sequence number of the batch within the range that is being
+	 *         read
+	 */
+	long getSequence()
+	{
+		return sequence;
+	}
+}
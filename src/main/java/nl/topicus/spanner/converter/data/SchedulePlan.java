@@ -0,0 +1,155 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.logging.Logger;
+
+/**
+ * Plans the order in which the part workers of all tables are submitted to the
+ * {@link WorkScheduler}. The part workers are ordered by their estimated size,
+ * largest first (LPT scheduling). As the scheduler starts the workers in the
+ * order in which they were submitted on the first thread that becomes idle,
+ * this keeps large tables from starting last and determining the total
+ * running time, and interleaves the parts of different tables.
+ *
+ * The plan also simulates the schedule on the available threads, so that the
+ * planned start and end of each table can be logged and compared with the
+ * actual run.
+ */
+final class SchedulePlan
+{
+	private static final Logger log = Logger.getLogger(SchedulePlan.class.getName());
+
+	static final class Task
+	{
+		private final AbstractTableWorker tableWorker;
+
+		private final AbstractTablePartWorker worker;
+
+		private final int part;
+
+		private final long estimatedRecordCount;
+
+		private final long estimatedByteCount;
+
+		private long plannedStart;
+
+		private long plannedEnd;
+
+		private Task(AbstractTableWorker tableWorker, AbstractTablePartWorker worker, int part)
+		{
+			this.tableWorker = tableWorker;
+			this.worker = worker;
+			this.part = part;
+			this.estimatedRecordCount = Math.max(worker.getEstimatedRecordCount(), 0L);
+			this.estimatedByteCount = estimatedRecordCount * Math.max(tableWorker.getEstimatedBytesPerRecord(), 1L);
+		}
+
+		void submit(WorkScheduler scheduler)
+		{
+			tableWorker.submit(scheduler, worker);
+		}
+	}
+
+	private final int threads;
+
+	private final List<Task> tasks = new ArrayList<>();
+
+	private long makespan;
+
+	private long totalByteCount;
+
+	SchedulePlan(List<? extends AbstractTableWorker> tableWorkers, int threads)
+	{
+		this.threads = Math.max(threads, 1);
+		for (AbstractTableWorker tableWorker : tableWorkers)
+		{
+			int part = 0;
+			for (AbstractTablePartWorker worker : tableWorker.getWorkers())
+			{
+				tasks.add(new Task(tableWorker, worker, part));
+				part++;
+			}
+		}
+		// The sort is stable, so parts of equal size keep the order of the
+		// tables and of the parts within a table
+		Collections.sort(tasks, Comparator.comparingLong((Task task) -> task.estimatedByteCount).reversed());
+		simulate();
+	}
+
+	/**
+	 * Assigns each task in order to the thread that becomes idle first
+	 */
+	private void simulate()
+	{
+		PriorityQueue<long[]> idle = new PriorityQueue<>(threads, Comparator.comparingLong((long[] load) -> load[0]));
+		for (int thread = 0; thread < threads; thread++)
+			idle.add(new long[] { 0L });
+		for (Task task : tasks)
+		{
+			long[] load = idle.poll();
+			task.plannedStart = load[0];
+			task.plannedEnd = load[0] + task.estimatedByteCount;
+			load[0] = task.plannedEnd;
+			idle.add(load);
+			makespan = Math.max(makespan, task.plannedEnd);
+			totalByteCount += task.estimatedByteCount;
+		}
+	}
+
+	List<Task> getTasks()
+	{
+		return tasks;
+	}
+
+	/**
+	 * Logs the planned schedule per table, and per part worker on level FINE.
+	 * Planned start and end are expressed as a percentage of the planned total
+	 * running time.
+	 */
+	void log()
+	{
+		if (tasks.isEmpty())
+			return;
+		long lowerBound = Math.max(tasks.get(0).estimatedByteCount, (totalByteCount + threads - 1) / threads);
+		log.info("Planned schedule: " + tasks.size() + " part workers on " + threads + " threads, estimated "
+				+ totalByteCount + " bytes, planned running time " + makespan + " (lower bound " + lowerBound
+				+ ")");
+		Map<AbstractTableWorker, long[]> tables = new LinkedHashMap<>();
+		for (Task task : tasks)
+		{
+			long[] table = tables.get(task.tableWorker);
+			if (table == null)
+			{
+				table = new long[] { 0L, 0L, 0L, Long.MAX_VALUE, 0L };
+				tables.put(task.tableWorker, table);
+			}
+			table[0]++;
+			table[1] += task.estimatedRecordCount;
+			table[2] += task.estimatedByteCount;
+			table[3] = Math.min(table[3], task.plannedStart);
+			table[4] = Math.max(table[4], task.plannedEnd);
+			log.fine("Planned: " + task.tableWorker.getTable() + " part " + task.part + ", estimated "
+					+ task.estimatedRecordCount + " records and " + task.estimatedByteCount + " bytes, start "
+					+ percentage(task.plannedStart) + "%, end " + percentage(task.plannedEnd) + "%");
+		}
+		for (Map.Entry<AbstractTableWorker, long[]> entry : tables.entrySet())
+		{
+			long[] table = entry.getValue();
+			log.info("Planned: " + entry.getKey().getTable() + ", " + table[0] + " part workers, estimated "
+					+ table[1] + " records and " + table[2] + " bytes, start " + percentage(table[3]) + "%, end "
+					+ percentage(table[4]) + "%");
+		}
+	}
+
+	private long percentage(long time)
+	{
+		return makespan == 0L ? 0L : Math.round(100d * time / makespan);
+	}
+
+}
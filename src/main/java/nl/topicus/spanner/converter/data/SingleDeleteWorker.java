@@ -1,22 +1,24 @@
 package nl.topicus.spanner.converter.data;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
 
 public class SingleDeleteWorker extends AbstractTablePartWorker
 {
+	private final ConnectionFactory connectionFactory;
 
-	SingleDeleteWorker(ConverterConfiguration config, String table, long recordCount)
+	SingleDeleteWorker(ConverterConfiguration config, ConnectionFactory connectionFactory, String table,
+			long recordCount)
 	{
 		super(config, table, recordCount);
+		this.connectionFactory = connectionFactory;
 	}
 
 	@Override
 	public void run() throws Exception
 	{
-		try (Connection destination = DriverManager.getConnection(config.getUrlDestination()))
+		try (Connection destination = connectionFactory.getDestinationConnection())
 		{
 			String sql = "delete from " + table;
 			destination.createStatement().executeUpdate(sql);
@@ -1,7 +1,6 @@
 package nl.topicus.spanner.converter.data;
 
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -9,16 +8,22 @@ import java.util.List;
 import java.util.logging.Logger;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
 
 public class TableDeleter extends AbstractTableWorker
 {
 	private static final Logger log = Logger.getLogger(TableDeleter.class.getName());
 
+	private final ConnectionFactory connectionFactory;
+
 	private long totalRecordCount;
 
-	TableDeleter(String table, ConverterConfiguration config)
+	TableDeleter(String table, ConverterConfiguration config, SchemaCatalog schemaCatalog,
+			ConnectionFactory connectionFactory)
 	{
-		super(table, config);
+		super(table, config, schemaCatalog);
+		this.connectionFactory = connectionFactory;
 	}
 
 	@Override
@@ -36,7 +41,7 @@ public class TableDeleter extends AbstractTableWorker
 			else
 			{
 				workers = new ArrayList<>(1);
-				workers.add(new SingleDeleteWorker(config, table, totalRecordCount));
+				workers.add(new SingleDeleteWorker(config, connectionFactory, table, totalRecordCount));
 			}
 		}
 		else
@@ -49,59 +54,55 @@ public class TableDeleter extends AbstractTableWorker
 
 	private List<AbstractTablePartWorker> createWorkers(Connection source, Connection destination) throws SQLException
 	{
-		Columns columns = converterUtils.getColumns(destination, config.getCatalog(), config.getSchema(), table, true);
+		TableMetadata metadata = schemaCatalog.getTable(table);
+		Columns columns = converterUtils.getColumns(metadata, true);
 
-		String selectFormat = "SELECT $COLUMNS FROM $TABLE ORDER BY $PRIMARY_KEY LIMIT 1 OFFSET $OFFSET";
 		int numberOfWorkers = config.getMaxNumberOfWorkers();
-		int batchSize = converterUtils.calculateActualBatchSize(1, destination, config.getCatalog(), config.getSchema(),
-				table);
+		int batchSize = converterUtils.calculateActualBatchSize(1, metadata);
 		long numberOfRecordsPerWorker = totalRecordCount / numberOfWorkers;
 		log.info("Deleting: Number of workers: " + numberOfWorkers + "; Batch size: " + batchSize
 				+ "; Number of records per worker: " + numberOfRecordsPerWorker);
+		int[] keyIndices = new int[columns.getPrimaryKeyCols().size()];
+		for (int i = 0; i < keyIndices.length; i++)
+			keyIndices[i] = i + 1;
+		KeysetPaginator paginator = new KeysetPaginator(columns, table + ".", config.getDestinationDatabaseType(),
+				keyIndices);
 		long currentOffset = 0;
+		List<Object> previousEndKey = null;
 		List<AbstractTablePartWorker> workers = new ArrayList<>(numberOfWorkers);
 		for (int workerNumber = 0; workerNumber < numberOfWorkers; workerNumber++)
 		{
-			List<Object> beginKey = new ArrayList<>(columns.getPrimaryKeyCols().size());
-			List<Object> endKey = new ArrayList<>(columns.getPrimaryKeyCols().size());
-			long beginKeyOffset = currentOffset;
-			String select = selectFormat.replace("$COLUMNS", columns.getPrimaryKeyColumns(table + "."));
-			select = select.replace("$TABLE", table);
-			select = select.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
-			select = select.replace("$OFFSET", String.valueOf(beginKeyOffset));
-			try (ResultSet rsBeginKey = destination.createStatement().executeQuery(select))
-			{
-				while (rsBeginKey.next())
-				{
-					for (int i = 1; i <= columns.getPrimaryKeyCols().size(); i++)
-					{
-						beginKey.add(rsBeginKey.getObject(i));
-					}
-				}
-			}
-
 			long endKeyOffset = currentOffset + numberOfRecordsPerWorker - 1;
-			if (workerNumber == (numberOfWorkers - 1))
-				endKeyOffset = totalRecordCount - 1;
-			select = selectFormat.replace("$COLUMNS", columns.getPrimaryKeyColumns(table + "."));
-			select = select.replace("$TABLE", table);
-			select = select.replace("$PRIMARY_KEY", columns.getPrimaryKeyColumns());
-			select = select.replace("$OFFSET", String.valueOf(endKeyOffset));
-			try (ResultSet rsEndKey = destination.createStatement().executeQuery(select))
+			List<Object> beginKey;
+			// Seek from the previous boundary, so that each lookup only scans
+			// the records of one worker
+			if (config.isUseKeysetPagination())
+				beginKey = paginator.findKey(destination, table, previousEndKey, ">", 0);
+			else
+				beginKey = paginator.findKey(destination, table, null, ">", currentOffset);
+			// The table has fewer records than were counted, and the previous
+			// worker already covers the remaining records
+			if (beginKey.isEmpty())
+				break;
+			// The last worker has no end key, so that it also deletes the
+			// records that have been added after the records were counted
+			List<Object> endKey = Collections.emptyList();
+			if (workerNumber < numberOfWorkers - 1)
 			{
-				while (rsEndKey.next())
-				{
-					for (int i = 1; i <= columns.getPrimaryKeyCols().size(); i++)
-					{
-						endKey.add(rsEndKey.getObject(i));
-					}
-				}
+				if (config.isUseKeysetPagination())
+					endKey = paginator.findKey(destination, table, beginKey, ">=", endKeyOffset - currentOffset);
+				else
+					endKey = paginator.findKey(destination, table, null, ">", endKeyOffset);
 			}
 
 			long workerRecordCount = Math.max(numberOfRecordsPerWorker, totalRecordCount - currentOffset);
-			DeleteWorker worker = new DeleteWorker(config, table, columns, beginKey, endKey, workerRecordCount,
-					batchSize);
+			DeleteWorker worker = new DeleteWorker(config, connectionFactory, table, columns, beginKey, endKey,
+					workerRecordCount, batchSize);
 			workers.add(worker);
+			// No end key was found, so this worker is the last worker
+			if (endKey.isEmpty())
+				break;
+			previousEndKey = endKey;
 			currentOffset = currentOffset + numberOfRecordsPerWorker;
 		}
 		destination.commit();
@@ -1,20 +1,17 @@
 package nl.topicus.spanner.converter.data;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.util.concurrent.Callable;
 
-import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
-
 public class TablePreparer implements Callable<ConversionResult>
 {
-	private final ConverterConfiguration config;
+	private final ConnectionFactory connectionFactory;
 
 	private final AbstractTableWorker worker;
 
-	public TablePreparer(ConverterConfiguration config, AbstractTableWorker worker)
+	TablePreparer(ConnectionFactory connectionFactory, AbstractTableWorker worker)
 	{
-		this.config = config;
+		this.connectionFactory = connectionFactory;
 		this.worker = worker;
 	}
 
@@ -22,8 +19,8 @@ public class TablePreparer implements Callable<ConversionResult>
 	public ConversionResult call() throws Exception
 	{
 		long startTime = System.currentTimeMillis();
-		try (Connection source = DriverManager.getConnection(config.getUrlSource());
-				Connection destination = DriverManager.getConnection(config.getUrlDestination()))
+		try (Connection source = connectionFactory.getSourceConnection();
+				Connection destination = connectionFactory.getDestinationConnection())
 		{
 			worker.prepare(source, destination);
 		}
@@ -1,13 +1,20 @@
 package nl.topicus.spanner.converter.data;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
+import nl.topicus.spanner.converter.ConvertMode;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriterType;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
 
 public class TableWorker extends AbstractTableWorker
 {
@@ -15,33 +22,65 @@ public class TableWorker extends AbstractTableWorker
 
 	private long totalRecordCount;
 
-	TableWorker(String table, ConverterConfiguration config)
+	private long estimatedBytesPerRecord = 1L;
+
+	/**
+	 * The estimated number of bytes per record of the source tables that are
+	 * known from this or an earlier run, by table
+	 */
+	private final Map<String, Long> sourceBytesPerRecord;
+
+	private final Checkpoint checkpoint;
+
+	private final ConnectionFactory connectionFactory;
+
+	TableWorker(String table, ConverterConfiguration config, SchemaCatalog schemaCatalog,
+			Map<String, Long> sourceBytesPerRecord, Checkpoint checkpoint, ConnectionFactory connectionFactory)
 	{
-		super(table, config);
+		super(table, config, schemaCatalog);
+		this.sourceBytesPerRecord = sourceBytesPerRecord;
+		this.checkpoint = checkpoint;
+		this.connectionFactory = connectionFactory;
 	}
 
 	@Override
 	protected List<AbstractTablePartWorker> prepareWorkers(Connection source, Connection destination)
-			throws SQLException
+			throws SQLException, IOException
 	{
 		String tableSpec = converterUtils.getTableSpec(config.getCatalog(), config.getSchema(), table);
-		Columns insertCols = converterUtils.getColumns(destination, config.getCatalog(), config.getSchema(), table,
-				false);
-		Columns selectCols = converterUtils.getColumns(destination, config.getCatalog(), config.getSchema(), table,
-				true);
+		TableMetadata metadata = schemaCatalog.getTable(table);
+		Columns insertCols = converterUtils.getColumns(metadata, false);
+		Columns selectCols = converterUtils.getColumns(metadata, true);
 		if (insertCols.getPrimaryKeyCols().isEmpty())
 		{
 			log.warning("Table " + tableSpec + " does not have a primary key. No data will be copied.");
 			return Collections.emptyList();
 		}
+		// The element type of an ARRAY column is not known, so the values
+		// cannot be bound to a mutation
+		if (config.getWriterType() == WriterType.Mutation && insertCols.getColumnTypes().contains(Types.ARRAY))
+			throw new IllegalStateException("Table " + tableSpec + " has ARRAY columns, which are not supported by "
+					+ "writer type " + WriterType.Mutation + ". Use writer type " + WriterType.Jdbc + " instead.");
+		estimatedBytesPerRecord = estimateBytesPerRecord(source, metadata, tableSpec);
+
+		if (checkpoint != null && config.getDataConvertMode() == ConvertMode.Resume && checkpoint.isStarted(table))
+		{
+			return createResumedWorkers(metadata, tableSpec, insertCols, selectCols);
+		}
 
-		int batchSize = converterUtils.calculateActualBatchSize(insertCols.getColumns().size(), destination,
-				config.getCatalog(), config.getSchema(), table);
+		int batchSize = converterUtils.calculateActualBatchSize(insertCols.getColumns().size(), metadata);
 		totalRecordCount = converterUtils.getSourceRecordCount(source, tableSpec);
 
 		int numberOfWorkers = calculateNumberOfWorkers(totalRecordCount, batchSize);
+		BatchSizeController batchSizeController = createBatchSizeController(metadata, tableSpec, insertCols,
+				batchSize);
 		log.info("About to copy " + totalRecordCount + " records from table " + tableSpec + " with batch size "
 				+ batchSize + " and " + numberOfWorkers + " workers");
+		if (config.isUseKeyRangePartitioning())
+		{
+			return createRangeWorkers(source, tableSpec, insertCols, selectCols, numberOfWorkers,
+					batchSizeController);
+		}
 		long numberOfRecordsPerWorker = totalRecordCount / numberOfWorkers;
 		if (totalRecordCount % numberOfWorkers > 0)
 			numberOfRecordsPerWorker++;
@@ -51,20 +90,125 @@ public class TableWorker extends AbstractTableWorker
 		for (int workerNumber = 0; workerNumber < numberOfWorkers; workerNumber++)
 		{
 			long workerRecordCount = Math.min(numberOfRecordsPerWorker, totalRecordCount - currentOffset);
-			UploadWorker worker = new UploadWorker("UploadWorker-" + workerNumber, config, DataCopier.SELECT_FORMAT,
-					tableSpec, table, insertCols, selectCols, currentOffset, workerRecordCount, batchSize);
+			UploadWorker worker = new UploadWorker("UploadWorker-" + workerNumber, config, connectionFactory,
+					DataCopier.SELECT_FORMAT, tableSpec, table, insertCols, selectCols, currentOffset,
+					workerRecordCount, batchSizeController);
 			workers.add(worker);
 			currentOffset = currentOffset + numberOfRecordsPerWorker;
 		}
 		return workers;
 	}
 
+	private BatchSizeController createBatchSizeController(TableMetadata metadata, String tableSpec,
+			Columns insertCols, int batchSize)
+	{
+		CommitCost commitCost = new CommitCost(config, metadata, insertCols);
+		return new BatchSizeController(config, tableSpec, batchSize, commitCost);
+	}
+
+	/**
+	 * Creates workers for the key ranges that were not finished when the
+	 * previous copy of this table was interrupted
+	 */
+	private List<AbstractTablePartWorker> createResumedWorkers(TableMetadata metadata, String tableSpec,
+			Columns insertCols, Columns selectCols)
+	{
+		List<Checkpoint.Entry> unfinished = checkpoint.getUnfinishedRanges(table);
+		if (unfinished.isEmpty())
+		{
+			log.info("Table " + tableSpec + " was already copied. Skipping table.");
+			return Collections.emptyList();
+		}
+		int batchSize = converterUtils.calculateActualBatchSize(insertCols.getColumns().size(), metadata);
+		BatchSizeController batchSizeController = createBatchSizeController(metadata, tableSpec, insertCols,
+				batchSize);
+		WorkStealer workStealer = createWorkStealer(tableSpec, selectCols, batchSizeController,
+				checkpoint.getNextRangeIndex(table));
+		List<AbstractTablePartWorker> workers = new ArrayList<>(unfinished.size());
+		for (Checkpoint.Entry entry : unfinished)
+		{
+			KeyRange range = entry.getRemainingRange();
+			totalRecordCount += range.getEstimatedRecordCount();
+			UploadWorker worker = new UploadWorker("UploadWorker-" + entry.range, config, connectionFactory,
+					DataCopier.SELECT_FORMAT, tableSpec, table, insertCols, selectCols, range, batchSizeController,
+					checkpoint, entry.range);
+			if (workStealer != null)
+				worker.setWorkStealer(workStealer);
+			workers.add(worker);
+		}
+		log.info("Resuming copy of table " + tableSpec + " with " + workers.size() + " unfinished key ranges");
+		return workers;
+	}
+
+	private List<AbstractTablePartWorker> createRangeWorkers(Connection source, String tableSpec, Columns insertCols,
+			Columns selectCols, int numberOfWorkers, BatchSizeController batchSizeController)
+			throws SQLException, IOException
+	{
+		List<KeyRange> ranges = new KeyRangeSplitter(config).split(source, tableSpec, insertCols, totalRecordCount,
+				numberOfWorkers);
+		log.fine(tableSpec + ": Key ranges: " + ranges);
+		WorkStealer workStealer = createWorkStealer(tableSpec, selectCols, batchSizeController, ranges.size());
+		List<AbstractTablePartWorker> workers = new ArrayList<>(ranges.size());
+		int workerNumber = 0;
+		for (KeyRange range : ranges)
+		{
+			UploadWorker worker = new UploadWorker("UploadWorker-" + workerNumber, config, connectionFactory,
+					DataCopier.SELECT_FORMAT, tableSpec, table, insertCols, selectCols, range, batchSizeController,
+					checkpoint, workerNumber);
+			if (workStealer != null)
+				worker.setWorkStealer(workStealer);
+			workers.add(worker);
+			if (checkpoint != null)
+				checkpoint.write(new Checkpoint.Entry(table, workerNumber, range, null, 0L, 0L, false));
+			workerNumber++;
+		}
+		return workers;
+	}
+
+	/**
+	 * @return The work stealer for the key range workers of this table, or
+	 *         null if work stealing is disabled
+	 */
+	private WorkStealer createWorkStealer(String tableSpec, Columns selectCols,
+			BatchSizeController batchSizeController, int firstRangeIndex)
+	{
+		if (!config.isUseWorkStealing())
+			return null;
+		return new WorkStealer(config, connectionFactory, tableSpec, selectCols, batchSizeController,
+				firstRangeIndex);
+	}
+
+	/**
+	 * Estimates the size of one record from the statistics of the source
+	 * table, or from the column definitions of the destination table if the
+	 * source database has no statistics. An estimate that is already known is
+	 * reused.
+	 */
+	private long estimateBytesPerRecord(Connection source, TableMetadata metadata, String tableSpec)
+	{
+		Long known = sourceBytesPerRecord.get(tableSpec);
+		if (known != null)
+			return known.longValue();
+		long res = converterUtils.getSourceBytesPerRecord(source, tableSpec);
+		if (res <= 0L)
+			res = converterUtils.getEstimatedRowSizeInCloudSpanner(metadata);
+		res = Math.max(res, 1L);
+		sourceBytesPerRecord.put(tableSpec, Long.valueOf(res));
+		return res;
+	}
+
 	@Override
 	public long getTotalRecordCount()
 	{
 		return totalRecordCount;
 	}
 
+	@Override
+	protected long getEstimatedBytesPerRecord()
+	{
+		return estimatedBytesPerRecord;
+	}
+
 	private int calculateNumberOfWorkers(long totalRecordCount, int batchSize)
 	{
 		long res = totalRecordCount / batchSize + 1;
@@ -1,19 +1,29 @@
 package nl.topicus.spanner.converter.data;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
-import nl.topicus.spanner.converter.util.ConverterUtils;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriteMode;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.WriterType;
 
 public class UploadWorker extends AbstractTablePartWorker
 {
 	private static final Logger log = Logger.getLogger(UploadWorker.class.getName());
 
+	private static final String STREAM_SELECT_FORMAT = "SELECT $COLUMNS FROM $TABLE$WHERE_CLAUSE ORDER BY $PRIMARY_KEY";
+
 	private String selectFormat;
 
 	private String sourceTable;
@@ -26,84 +36,765 @@ public class UploadWorker extends AbstractTablePartWorker
 
 	private long beginOffset;
 
-	private int batchSize;
+	/**
+	 * The range of primary keys to copy. If null, the records to copy are
+	 * determined by the begin offset and the number of records to copy. The
+	 * end of the range may be moved forward by work stealing while the worker
+	 * is running.
+	 */
+	private volatile KeyRange range;
+
+	/**
+	 * Guards the range and the read position of the reader, so that the
+	 * range can only be split between two batches
+	 */
+	private final Object rangeLock = new Object();
+
+	/**
+	 * The last key that has been read, or null if no records have been read
+	 */
+	private List<Object> readKey;
+
+	private volatile long readRecordCount;
+
+	private volatile boolean readFinished;
+
+	/**
+	 * The work stealer of the table, or null if work stealing is not used
+	 */
+	private WorkStealer workStealer;
+
+	/**
+	 * The checkpoint to write the progress of the key range to. Only key range
+	 * workers write checkpoints.
+	 */
+	private Checkpoint checkpoint;
+
+	/**
+	 * The number of the key range within the table
+	 */
+	private int rangeIndex;
+
+	/**
+	 * Batches that have been committed while a batch that was read earlier has
+	 * not yet been committed
+	 */
+	private final Map<Long, RowBatch> committedOutOfOrder = new HashMap<>();
+
+	private long nextSequenceToCheckpoint;
+
+	private long checkpointRecordCount;
+
+	private long checkpointByteCount;
+
+	private BatchSizeController batchSizeController;
+
+	/**
+	 * The factory for the source connection of the reader and the destination
+	 * connections of the writers
+	 */
+	private ConnectionFactory connectionFactory;
+
+	private long recordCount;
 
 	private long byteCount;
 
-	UploadWorker(String name, ConverterConfiguration config, String selectFormat, String sourceTable,
-			String destinationTable, Columns insertCols, Columns selectCols, long beginOffset,
-			long numberOfRecordsToCopy, int batchSize)
+	private long retryCount;
+
+	UploadWorker(String name, ConverterConfiguration config, ConnectionFactory connectionFactory, String selectFormat,
+			String sourceTable, String destinationTable, Columns insertCols, Columns selectCols, long beginOffset,
+			long numberOfRecordsToCopy, BatchSizeController batchSizeController)
 	{
 		super(config, sourceTable, numberOfRecordsToCopy);
+		this.connectionFactory = connectionFactory;
 		this.selectFormat = selectFormat;
 		this.sourceTable = sourceTable;
 		this.destinationTable = destinationTable;
 		this.insertCols = insertCols;
 		this.selectCols = selectCols;
 		this.beginOffset = beginOffset;
-		this.batchSize = batchSize;
+		this.batchSizeController = batchSizeController;
+	}
+
+	UploadWorker(String name, ConverterConfiguration config, ConnectionFactory connectionFactory, String selectFormat,
+			String sourceTable, String destinationTable, Columns insertCols, Columns selectCols, KeyRange range,
+			BatchSizeController batchSizeController, Checkpoint checkpoint, int rangeIndex)
+	{
+		this(name, config, connectionFactory, selectFormat, sourceTable, destinationTable, insertCols, selectCols, 0,
+				range.getEstimatedRecordCount(), batchSizeController);
+		this.range = range;
+		this.checkpoint = checkpoint;
+		this.rangeIndex = rangeIndex;
+	}
+
+	/**
+	 * Creates a worker for the tail of the key range of another worker
+	 */
+	private UploadWorker(UploadWorker original, KeyRange tail, int rangeIndex)
+	{
+		this("UploadWorker-" + rangeIndex, original.config, original.connectionFactory, original.selectFormat,
+				original.sourceTable, original.destinationTable, original.insertCols, original.selectCols, tail,
+				original.batchSizeController, original.checkpoint, rangeIndex);
+		this.workStealer = original.workStealer;
+	}
+
+	/**
+	 * Lets this worker steal the unread tail of the key ranges of the other
+	 * workers of the table when it has finished its own range, and lets the
+	 * other workers steal from this worker
+	 */
+	void setWorkStealer(WorkStealer workStealer)
+	{
+		this.workStealer = workStealer;
+		workStealer.register(this);
 	}
 
 	@Override
-	public void run() throws SQLException
+	public void run() throws Exception
+	{
+		copy(getStageExecutor());
+		if (workStealer != null)
+		{
+			UploadWorker stolen;
+			while ((stolen = workStealer.steal(this)) != null)
+			{
+				stolen.copy(getStageExecutor());
+				synchronized (this)
+				{
+					recordCount += stolen.getRecordCount();
+					byteCount += stolen.getByteCount();
+					retryCount += stolen.getRetryCount();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copies the records of this worker using one reader and one or more
+	 * writers. The reader runs on the calling thread and the writers run on
+	 * the given shared stage executor.
+	 */
+	private void copy(ExecutorService stageExecutor) throws Exception
+	{
+		log.fine(sourceTable + ": Starting copying " + totalRecordCount + " records");
+		BatchQueue queue = new BatchQueue(config.getPipelineBufferSize());
+		int numberOfWriters = config.getNumberOfWritersPerWorker();
+		List<Future<Void>> writers = new ArrayList<>(numberOfWriters);
+		for (int writer = 0; writer < numberOfWriters; writer++)
+		{
+			writers.add(stageExecutor.submit(() -> {
+				write(queue);
+				return null;
+			}));
+		}
+		Exception exception = null;
+		try
+		{
+			read(queue);
+		}
+		catch (Exception e)
+		{
+			exception = e;
+		}
+		try
+		{
+			for (Future<Void> future : writers)
+			{
+				try
+				{
+					future.get();
+				}
+				catch (ExecutionException e)
+				{
+					if (exception == null)
+						exception = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			queue.abort();
+			for (Future<Void> future : writers)
+				future.cancel(true);
+			throw e;
+		}
+		if (exception != null)
+			throw exception;
+		if (checkpoint != null)
+			checkpoint.write(new Checkpoint.Entry(destinationTable, rangeIndex, range, null, checkpointRecordCount,
+					checkpointByteCount, true));
+		log.fine(sourceTable + ": Finished copying");
+	}
+
+	/**
+	 * Reader stage: reads batches from the source table and puts these on the
+	 * queue until all records have been read
+	 */
+	private void read(BatchQueue queue) throws Exception
+	{
+		try (Connection source = connectionFactory.getSnapshotSourceConnection())
+		{
+			CommitCost commitCost = batchSizeController.getCommitCost();
+			KeysetPaginator paginator = null;
+			if (config.isUseKeysetPagination() || range != null)
+				paginator = new KeysetPaginator(selectCols, "", config.getSourceDatabaseType(),
+						selectCols.getPrimaryKeyColumnIndices());
+			boolean useBinaryCopy = config.isUseBinaryCopy();
+			if (useBinaryCopy && !BinaryCopyReader.canDecode(source, sourceTable, selectCols))
+			{
+				log.fine(sourceTable + ": Not all columns can be read with binary COPY, reading with JDBC instead");
+				useBinaryCopy = false;
+			}
+			if (useBinaryCopy)
+				readCopy(source, queue, paginator, commitCost);
+			else if (config.isUseStreamingCursor())
+				readStream(source, queue, paginator, commitCost);
+			else
+				readBatches(source, queue, paginator, commitCost);
+			queue.close();
+		}
+		catch (Exception e)
+		{
+			queue.abort();
+			throw e;
+		}
+		finally
+		{
+			readFinished = true;
+		}
+	}
+
+	/**
+	 * Reads the records with one query per batch
+	 */
+	private void readBatches(Connection source, BatchQueue queue, KeysetPaginator paginator,
+			CommitCost commitCost) throws SQLException, InterruptedException
+	{
+		int[] types = insertCols.getColumnTypeArray();
+		long lastRecord = beginOffset + totalRecordCount;
+		long currentOffset = beginOffset;
+		long sequence = 0;
+		List<Object> lastKey = null;
+		while (true)
+		{
+			int batchSize = batchSizeController.getBatchSize();
+			long limit = range == null ? Math.min(batchSize, lastRecord - currentOffset) : batchSize;
+			List<Object[]> rows = new ArrayList<>();
+			long batchByteCount = 0;
+			// The batch is cut before the limit if it is full, and the next
+			// batch continues after the last record that was read
+			boolean full = false;
+			synchronized (rangeLock)
+			{
+				try (PreparedStatement statement = prepareSelect(source, paginator, lastKey, limit, currentOffset);
+						ResultSet rs = statement.executeQuery())
+				{
+					while (!full && rs.next())
+					{
+						Object[] row = readRow(rs, types.length);
+						batchByteCount += commitCost.getRecordSize(row);
+						rows.add(row);
+						if (paginator != null)
+							lastKey = paginator.getKey(rs);
+						full = commitCost.isFull(rows.size(), batchByteCount);
+					}
+				}
+				readKey = lastKey;
+				readRecordCount += rows.size();
+				if (!full && rows.size() < limit)
+					readFinished = true;
+			}
+			if (!rows.isEmpty() && !queue.put(new RowBatch(rows, batchByteCount, lastKey, sequence++)))
+				break;
+			currentOffset = currentOffset + (full ? rows.size() : limit);
+			if (range == null && readRecordCount >= totalRecordCount)
+				break;
+			if (!full && rows.size() < limit)
+				break;
+		}
+	}
+
+	/**
+	 * Reads all records of this worker with one query on a server side cursor.
+	 * The driver only fetches the configured fetch size of records at a time,
+	 * and the records are cut into batches while they are being read. The
+	 * cursor only exists within a transaction, so auto commit is turned off for
+	 * the source connection.
+	 */
+	private void readStream(Connection source, BatchQueue queue, KeysetPaginator paginator,
+			CommitCost commitCost) throws SQLException, InterruptedException
+	{
+		int[] types = insertCols.getColumnTypeArray();
+		// In snapshot mode the connection is already read-only and in a
+		// transaction
+		if (source.getAutoCommit())
+		{
+			source.setReadOnly(true);
+			source.setAutoCommit(false);
+		}
+		try (PreparedStatement statement = prepareStreamingSelect(source, paginator))
+		{
+			statement.setFetchSize(config.getFetchSize());
+			try (ResultSet rs = statement.executeQuery())
+			{
+				long sequence = 0;
+				List<Object[]> rows = new ArrayList<>();
+				long batchByteCount = 0;
+				boolean hasNext = rs.next();
+				while (hasNext)
+				{
+					Object[] row = readRow(rs, types.length);
+					batchByteCount += commitCost.getRecordSize(row);
+					rows.add(row);
+					hasNext = rs.next();
+					if (!hasNext || rows.size() >= batchSizeController.getBatchSize()
+							|| commitCost.isFull(rows.size(), batchByteCount))
+					{
+						List<Object> lastKey = paginator == null ? null : paginator.getKey(row);
+						readRecordCount += rows.size();
+						if (!queue.put(new RowBatch(rows, batchByteCount, lastKey, sequence++)))
+							break;
+						rows = new ArrayList<>();
+						batchByteCount = 0;
+					}
+				}
+			}
+		}
+		finally
+		{
+			source.rollback();
+		}
+	}
+
+	/**
+	 * Reads all records of this worker with one COPY ... TO STDOUT (FORMAT
+	 * binary) statement, and cuts the records into batches while they are
+	 * being decoded
+	 */
+	private void readCopy(Connection source, BatchQueue queue, KeysetPaginator paginator,
+			CommitCost commitCost) throws SQLException, IOException, InterruptedException
+	{
+		int[] types = insertCols.getColumnTypeArray();
+		List<Object> parameters = new ArrayList<>();
+		String select = getSingleSelect(paginator, parameters);
+		try (BinaryCopyReader reader = new BinaryCopyReader(source, sourceTable, selectCols, select, parameters))
+		{
+			long sequence = 0;
+			List<Object[]> rows = new ArrayList<>();
+			long batchByteCount = 0;
+			Object[] row = new Object[types.length];
+			boolean hasNext = reader.next(row);
+			while (hasNext)
+			{
+				batchByteCount += commitCost.getRecordSize(row);
+				rows.add(row);
+				Object[] last = row;
+				row = new Object[types.length];
+				hasNext = reader.next(row);
+				if (!hasNext || rows.size() >= batchSizeController.getBatchSize()
+						|| commitCost.isFull(rows.size(), batchByteCount))
+				{
+					List<Object> lastKey = paginator == null ? null : paginator.getKey(last);
+					readRecordCount += rows.size();
+					if (!queue.put(new RowBatch(rows, batchByteCount, lastKey, sequence++)))
+						break;
+					rows = new ArrayList<>();
+					batchByteCount = 0;
+				}
+			}
+		}
+	}
+
+	private static Object[] readRow(ResultSet rs, int numberOfColumns) throws SQLException
+	{
+		Object[] row = new Object[numberOfColumns];
+		for (int index = 0; index < row.length; index++)
+			row[index] = rs.getObject(index + 1);
+		return row;
+	}
+
+	/**
+	 * Splits off the part of the key range of this worker that is furthest
+	 * away from the current read position. The split key is looked up at
+	 * half of the estimated number of unread records, or closer to the read
+	 * position if there are fewer records left than estimated. The split key
+	 * is looked up without blocking the reader of this worker. The range is
+	 * only shortened if the reader has read fewer records since the lookup
+	 * than the offset of the split key, so that it cannot have read past the
+	 * split key.
+	 *
+	 * @param source
+	 *            The connection to use to look up the split key
+	 * @param paginator
+	 *            The paginator to use to look up the split key
+	 * @param minimumRecordCount
+	 *            The minimum number of unread records this worker should
+	 *            keep, and the minimum offset of the split key
+	 * @param tailRangeIndex
+	 *            The range index to use for the new worker
+	 * @return A new worker for the tail of the range, or null if the range of
+	 *         this worker cannot be split
+	 */
+	UploadWorker splitTail(Connection source, KeysetPaginator paginator, long minimumRecordCount, int tailRangeIndex)
+			throws SQLException, IOException
 	{
-		try (Connection destination = DriverManager.getConnection(config.getUrlDestination());
-				Connection source = DriverManager.getConnection(config.getUrlSource()))
+		KeyRange current;
+		long recordCount;
+		List<Object> fromKey;
+		String operator;
+		synchronized (rangeLock)
 		{
-			ConverterUtils converterUtils = new ConverterUtils(config);
-			log.fine(sourceTable + ": Starting copying " + totalRecordCount + " records");
+			if (range == null || readFinished)
+				return null;
+			current = range;
+			recordCount = readRecordCount;
+			fromKey = readKey == null ? current.getBeginKey() : readKey;
+			operator = readKey == null && current.isBeginInclusive() ? ">=" : ">";
+		}
+		long remaining = current.getEstimatedRecordCount() - recordCount;
+		for (long offset = Math.max(remaining / 2, minimumRecordCount); offset >= minimumRecordCount; offset /= 2)
+		{
+			List<Object> splitKey = paginator.findKey(source, sourceTable, fromKey, operator, current.getEndKey(),
+					offset);
+			if (!splitKey.isEmpty())
+				return shortenRange(current, recordCount, splitKey, offset, remaining, minimumRecordCount,
+						tailRangeIndex);
+		}
+		return null;
+	}
 
-			destination.setAutoCommit(false);
-			String sql = "INSERT INTO " + destinationTable + " (" + insertCols.getColumnNames() + ") VALUES \n";
-			sql = sql + "(" + insertCols.getColumnParameters() + ")";
-			PreparedStatement statement = destination.prepareStatement(sql);
+	/**
+	 * Shortens the range of this worker to end at the given split key, if the
+	 * range has not changed and the reader has not reached the split key since
+	 * the split key was looked up. The split key is the key of the record at
+	 * the given offset after the read position at the time of the lookup, and
+	 * the reader reads whole batches while it holds the range lock, so it has
+	 * not reached the split key if it has read fewer records than the offset.
+	 */
+	private UploadWorker shortenRange(KeyRange current, long recordCount, List<Object> splitKey, long offset,
+			long remaining, long minimumRecordCount, int tailRangeIndex) throws IOException
+	{
+		synchronized (rangeLock)
+		{
+			if (range != current || readFinished || readRecordCount - recordCount >= offset)
+				return null;
+			KeyRange tail = new KeyRange(splitKey, current.getEndKey(), Math.max(remaining - offset,
+					minimumRecordCount));
+			// The new range must be journaled before this worker writes any
+			// entry with the shortened range
+			if (checkpoint != null)
+				checkpoint.write(new Checkpoint.Entry(destinationTable, tailRangeIndex, tail, null, 0L, 0L, false,
+						rangeIndex));
+			range = new KeyRange(current.getBeginKey(), current.isBeginInclusive(), splitKey, recordCount + offset);
+			return new UploadWorker(this, tail, tailRangeIndex);
+		}
+	}
 
-			long lastRecord = beginOffset + totalRecordCount;
-			long recordCount = 0;
-			long currentOffset = beginOffset;
-			while (true)
+	/**
+	 * @return The estimated number of records in the range of this worker that
+	 *         have not yet been read
+	 */
+	long getEstimatedUnreadRecordCount()
+	{
+		KeyRange current = range;
+		if (current == null || readFinished)
+			return 0L;
+		return Math.max(current.getEstimatedRecordCount() - readRecordCount, 0L);
+	}
+
+	boolean isReadFinished()
+	{
+		return readFinished;
+	}
+
+	/**
+	 * Writer stage: takes batches from the queue and writes these to the
+	 * destination table until the queue is closed. A batch that fails with a
+	 * transient error is written again from the records that are still in the
+	 * batch, after the writer has discarded the failed attempt.
+	 */
+	private void write(BatchQueue queue) throws Exception
+	{
+		RetryPolicy retryPolicy = new RetryPolicy(config);
+		AbstractBatchWriter writer = null;
+		try
+		{
+			writer = createWriter();
+			RowBatch batch;
+			while ((batch = queue.take()) != null)
 			{
-				long limit = Math.min(batchSize, lastRecord - currentOffset);
-				String select = selectFormat.replace("$COLUMNS", selectCols.getColumnNames());
-				select = select.replace("$TABLE", sourceTable);
-				select = select.replace("$PRIMARY_KEY", selectCols.getPrimaryKeyColumns());
-				select = select.replace("$BATCH_SIZE", String.valueOf(limit));
-				select = select.replace("$OFFSET", String.valueOf(currentOffset));
-				try (ResultSet rs = source.createStatement().executeQuery(select))
+				int attempt = 0;
+				while (true)
 				{
-					while (rs.next())
+					long startTime = System.currentTimeMillis();
+					try
+					{
+						writer.write(batch);
+						batchSizeController.batchCommitted(batch.size(), batch.getByteSize(),
+								System.currentTimeMillis() - startTime);
+						break;
+					}
+					catch (Exception e)
 					{
-						int index = 1;
-						for (Integer type : insertCols.getColumnTypes())
+						attempt++;
+						if (!retryPolicy.shouldRetry(e, attempt))
+							throw e;
+						log.warning(sourceTable + ": Writing a batch of " + batch.size() + " records failed (attempt "
+								+ attempt + "), retrying: " + e.getMessage() + getRetryWarning());
+						batchRetried();
+						if (!resetWriter(writer))
 						{
-							Object object = rs.getObject(index);
-							statement.setObject(index, object, type);
-							byteCount += converterUtils.getActualDataSize(type, object);
-							index++;
+							// The old writer has been closed, and must not be
+							// closed again if no new writer can be created
+							writer = null;
+							writer = createWriter();
 						}
-						if (config.isUseJdbcBatching())
-							statement.addBatch();
-						else
-							statement.executeUpdate();
-						recordCount++;
+						retryPolicy.backoff(attempt);
 					}
-					if (config.isUseJdbcBatching())
-						statement.executeBatch();
 				}
-				destination.commit();
-				log.fine(sourceTable + ": Records copied so far: " + recordCount + " of " + totalRecordCount);
-				currentOffset = currentOffset + batchSize;
-				if (recordCount >= totalRecordCount)
-					break;
+				batchWritten(batch);
 			}
 		}
-		log.fine(sourceTable + ": Finished copying");
+		catch (Exception e)
+		{
+			queue.abort();
+			throw e;
+		}
+		finally
+		{
+			if (writer != null)
+				writer.close();
+		}
+	}
+
+	/**
+	 * A batch that failed with a transient error, such as a broken connection
+	 * or a deadline that was exceeded, may still have been committed
+	 */
+	private String getRetryWarning()
+	{
+		if (config.getWriteMode() == WriteMode.Insert)
+			return ". The failed attempt may have been committed, in which case the retry fails on records that "
+					+ "already exist (ALREADY_EXISTS). Use write mode " + WriteMode.InsertOrUpdate
+					+ " to make retries idempotent.";
+		return ". The failed attempt may have been committed, in which case the retry updates the same records.";
+	}
+
+	/**
+	 * Discards the failed attempt of the writer. If the failed attempt cannot
+	 * be discarded, for example because the connection of the writer is
+	 * broken, the writer is closed so that it can be replaced with a new one.
+	 *
+	 * @return true if the writer can be used again, false if it was closed
+	 */
+	private boolean resetWriter(AbstractBatchWriter writer)
+	{
+		try
+		{
+			writer.reset();
+			return true;
+		}
+		catch (Exception e)
+		{
+			log.fine(sourceTable + ": Replacing writer that could not be reset: " + e.getMessage());
+			try
+			{
+				writer.close();
+			}
+			catch (Exception closeException)
+			{
+				// ignore, the writer is replaced
+			}
+			return false;
+		}
+	}
+
+	private AbstractBatchWriter createWriter() throws Exception
+	{
+		switch (config.getWriterType())
+		{
+		case Mutation:
+			return new MutationBatchWriter(config, destinationTable, insertCols);
+		case Copy:
+			return new CopyBatchWriter(config, connectionFactory, destinationTable, insertCols);
+		case Jdbc:
+		default:
+			return new JdbcBatchWriter(config, connectionFactory, destinationTable, insertCols);
+		}
+	}
+
+	private synchronized void batchRetried()
+	{
+		retryCount++;
+	}
+
+	private synchronized void batchWritten(RowBatch batch) throws IOException
+	{
+		recordCount += batch.size();
+		byteCount += batch.getByteSize();
+		log.fine(sourceTable + ": Records copied so far: " + recordCount + " of " + totalRecordCount);
+		if (checkpoint != null)
+		{
+			// Multiple writers may commit batches out of order. The checkpoint
+			// may only move past a batch when all batches before it have been
+			// committed as well.
+			committedOutOfOrder.put(batch.getSequence(), batch);
+			RowBatch last = null;
+			RowBatch next;
+			while ((next = committedOutOfOrder.remove(nextSequenceToCheckpoint)) != null)
+			{
+				checkpointRecordCount += next.size();
+				checkpointByteCount += next.getByteSize();
+				nextSequenceToCheckpoint++;
+				last = next;
+			}
+			if (last != null)
+				checkpoint.write(new Checkpoint.Entry(destinationTable, rangeIndex, range, last.getLastKey(),
+						checkpointRecordCount, checkpointByteCount, false));
+		}
+	}
+
+	/**
+	 * Prepares the select statement for the next batch of records. When keyset
+	 * pagination is used, all batches after the first batch are selected by
+	 * seeking past the last key of the previous batch. The first batch is
+	 * selected using the begin key of the key range of this worker, or
+	 * otherwise the begin offset of this worker. The caller must close the
+	 * statement.
+	 */
+	private PreparedStatement prepareSelect(Connection source, KeysetPaginator paginator, List<Object> lastKey,
+			long limit, long currentOffset) throws SQLException
+	{
+		List<String> clauses = new ArrayList<>(2);
+		List<List<Object>> keys = new ArrayList<>(2);
+		if (lastKey != null)
+		{
+			clauses.add(paginator.getWhereClause(">"));
+			keys.add(lastKey);
+		}
+		else if (range != null && range.getBeginKey() != null)
+		{
+			clauses.add(paginator.getWhereClause(range.isBeginInclusive() ? ">=" : ">"));
+			keys.add(range.getBeginKey());
+		}
+		if (range != null && range.getEndKey() != null)
+		{
+			clauses.add(paginator.getWhereClause("<"));
+			keys.add(range.getEndKey());
+		}
+		if (clauses.isEmpty())
+		{
+			String select = selectFormat.replace("$COLUMNS", selectCols.getColumnNames());
+			select = select.replace("$TABLE", sourceTable);
+			select = select.replace("$PRIMARY_KEY", selectCols.getPrimaryKeyColumns());
+			select = select.replace("$BATCH_SIZE", String.valueOf(limit));
+			select = select.replace("$OFFSET", String.valueOf(currentOffset));
+			return source.prepareStatement(select);
+		}
+		String select = KeysetPaginator.SEEK_SELECT_FORMAT.replace("$COLUMNS", selectCols.getColumnNames());
+		select = select.replace("$TABLE", sourceTable);
+		select = select.replace("$WHERE_CLAUSE", String.join(" AND ", clauses));
+		select = select.replace("$PRIMARY_KEY", selectCols.getPrimaryKeyColumns());
+		select = select.replace("$BATCH_SIZE", String.valueOf(limit));
+		PreparedStatement statement = source.prepareStatement(select);
+		try
+		{
+			int index = 1;
+			for (List<Object> key : keys)
+				index = paginator.setKeyParameters(statement, index, key);
+		}
+		catch (SQLException e)
+		{
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Prepares the select statement for a streaming cursor over all records of
+	 * this worker. The caller must close the statement.
+	 */
+	private PreparedStatement prepareStreamingSelect(Connection source, KeysetPaginator paginator)
+			throws SQLException
+	{
+		List<Object> parameters = new ArrayList<>();
+		String select = getSingleSelect(paginator, parameters).replace("$COLUMNS", selectCols.getColumnNames());
+		PreparedStatement statement = source.prepareStatement(select, ResultSet.TYPE_FORWARD_ONLY,
+				ResultSet.CONCUR_READ_ONLY);
+		try
+		{
+			for (int index = 0; index < parameters.size(); index++)
+				statement.setObject(index + 1, parameters.get(index));
+		}
+		catch (SQLException e)
+		{
+			statement.close();
+			throw e;
+		}
+		return statement;
+	}
+
+	/**
+	 * Builds one select statement for all records of this worker. The columns
+	 * to select are left as the $COLUMNS placeholder.
+	 *
+	 * @param parameters
+	 *            The list to add the values of the parameters of the statement
+	 *            to
+	 */
+	private String getSingleSelect(KeysetPaginator paginator, List<Object> parameters)
+	{
+		if (range == null)
+		{
+			String select = selectFormat.replace("$TABLE", sourceTable);
+			select = select.replace("$PRIMARY_KEY", selectCols.getPrimaryKeyColumns());
+			select = select.replace("$BATCH_SIZE", String.valueOf(totalRecordCount));
+			select = select.replace("$OFFSET", String.valueOf(beginOffset));
+			return select;
+		}
+		List<String> clauses = new ArrayList<>(2);
+		if (range.getBeginKey() != null)
+		{
+			clauses.add(paginator.getWhereClause(range.isBeginInclusive() ? ">=" : ">"));
+			parameters.addAll(paginator.getKeyParameters(range.getBeginKey()));
+		}
+		if (range.getEndKey() != null)
+		{
+			clauses.add(paginator.getWhereClause("<"));
+			parameters.addAll(paginator.getKeyParameters(range.getEndKey()));
+		}
+		String select = STREAM_SELECT_FORMAT.replace("$TABLE", sourceTable);
+		select = select.replace("$WHERE_CLAUSE", clauses.isEmpty() ? "" : " WHERE " + String.join(" AND ", clauses));
+		select = select.replace("$PRIMARY_KEY", selectCols.getPrimaryKeyColumns());
+		return select;
 	}
 
 	@Override
-	protected long getByteCount()
+	protected int getRequiredConnections()
+	{
+		// One connection for the reader and one for each JDBC or COPY writer
+		if (config.getWriterType() != WriterType.Mutation)
+			return 1 + config.getNumberOfWritersPerWorker();
+		return 1;
+	}
+
+	@Override
+	protected synchronized long getRecordCount()
+	{
+		return recordCount;
+	}
+
+	@Override
+	protected synchronized long getByteCount()
 	{
 		return byteCount;
 	}
 
+	@Override
+	protected synchronized long getRetryCount()
+	{
+		return retryCount;
+	}
+
 }
@@ -0,0 +1,102 @@
+package nl.topicus.spanner.converter.data;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+
+/**
+ * Runs the part workers of all tables on one shared pool of threads. The
+ * scheduler limits both the total number of part workers running in parallel
+ * and the total number of database connections that these workers hold. A
+ * thread that becomes idle picks up the next part worker regardless of the
+ * table it belongs to.
+ *
+ * The pipeline stages that a part worker runs besides its own thread, such as
+ * the writers of an upload worker, run on a second shared pool. This pool has
+ * a thread for each writer of each part worker that can run in parallel, so
+ * that a stage never waits for a thread while its part worker is running.
+ */
+final class WorkScheduler
+{
+	private static final Logger log = Logger.getLogger(WorkScheduler.class.getName());
+
+	private final ExecutorService executor;
+
+	private final ExecutorService stageExecutor;
+
+	private final int maxConnections;
+
+	private final Semaphore connections;
+
+	private int peakConnections;
+
+	WorkScheduler(ConverterConfiguration config)
+	{
+		int stageThreads = Math.max(config.getMaxConcurrentWorkers() * config.getNumberOfWritersPerWorker(), 1);
+		this.executor = Executors.newFixedThreadPool(config.getMaxConcurrentWorkers());
+		this.stageExecutor = Executors.newFixedThreadPool(stageThreads);
+		this.maxConnections = config.getMaxConnections();
+		this.connections = new Semaphore(maxConnections, true);
+		log.info("Work scheduler started with " + config.getMaxConcurrentWorkers() + " threads, " + stageThreads
+				+ " stage threads and a maximum of " + maxConnections + " connections");
+	}
+
+	/**
+	 * Schedules a part worker. The worker will only be started when there is
+	 * an idle thread and enough connections are available.
+	 */
+	Future<ConversionResult> submit(AbstractTablePartWorker worker)
+	{
+		worker.setStageExecutor(stageExecutor);
+		return executor.submit(() -> {
+			int permits = Math.min(worker.getRequiredConnections(), maxConnections);
+			connections.acquire(permits);
+			try
+			{
+				registerConnections();
+				return worker.call();
+			}
+			finally
+			{
+				connections.release(permits);
+			}
+		});
+	}
+
+	private synchronized void registerConnections()
+	{
+		peakConnections = Math.max(peakConnections, maxConnections - connections.availablePermits());
+	}
+
+	/**
+	 * Stops accepting new workers and waits for all scheduled workers to
+	 * finish
+	 *
+	 * @return true if all workers finished, false if the timeout elapsed
+	 */
+	boolean shutdownAndAwait(long timeout, TimeUnit unit) throws InterruptedException
+	{
+		executor.shutdown();
+		boolean finished = executor.awaitTermination(timeout, unit);
+		stageExecutor.shutdown();
+		log.info("Work scheduler finished. Peak number of connections: " + getPeakConnections());
+		return finished;
+	}
+
+	void shutdownNow()
+	{
+		executor.shutdownNow();
+		stageExecutor.shutdownNow();
+	}
+
+	synchronized int getPeakConnections()
+	{
+		return peakConnections;
+	}
+
+}
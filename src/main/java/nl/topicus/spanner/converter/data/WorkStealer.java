@@ -0,0 +1,120 @@
+package nl.topicus.spanner.converter.data;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+
+/**
+ * Lets the upload workers of one table that have finished their own key range
+ * take over the unread tail of the key range of a worker that is still busy.
+ * Key ranges are calculated up front from estimates, so a worker that lands on
+ * a dense region or on wide records would otherwise keep running long after
+ * the other workers of the table have finished.
+ */
+final class WorkStealer
+{
+	private static final Logger log = Logger.getLogger(WorkStealer.class.getName());
+
+	/**
+	 * The minimum number of batches a worker should have left to read before
+	 * part of its range is stolen
+	 */
+	private static final int MIN_BATCHES_TO_STEAL = 4;
+
+	private final ConnectionFactory connectionFactory;
+
+	private final String tableSpec;
+
+	private final KeysetPaginator paginator;
+
+	private final BatchSizeController batchSizeController;
+
+	private final List<UploadWorker> workers = new ArrayList<>();
+
+	private int nextRangeIndex;
+
+	/**
+	 * @param firstRangeIndex
+	 *            The range index to use for the first range that is split off
+	 */
+	WorkStealer(ConverterConfiguration config, ConnectionFactory connectionFactory, String tableSpec,
+			Columns selectCols, BatchSizeController batchSizeController, int firstRangeIndex)
+	{
+		this.connectionFactory = connectionFactory;
+		this.tableSpec = tableSpec;
+		this.paginator = new KeysetPaginator(selectCols, "", config.getSourceDatabaseType(),
+				selectCols.getPrimaryKeyColumnIndices());
+		this.batchSizeController = batchSizeController;
+		this.nextRangeIndex = firstRangeIndex;
+	}
+
+	synchronized void register(UploadWorker worker)
+	{
+		workers.add(worker);
+	}
+
+	/**
+	 * Splits off the tail of the key range of the worker with the most unread
+	 * records. If that worker cannot be split, the other workers are tried in
+	 * order of their number of unread records.
+	 *
+	 * @param thief
+	 *            The worker that has finished its own range
+	 * @return A new, registered worker for the tail that was split off, or null
+	 *         if there is nothing left to steal
+	 */
+	UploadWorker steal(UploadWorker thief) throws SQLException, IOException
+	{
+		List<UploadWorker> victims = getVictims(thief);
+		if (victims.isEmpty())
+			return null;
+		long minimumRecordCount = (long) MIN_BATCHES_TO_STEAL * batchSizeController.getBatchSize();
+		try (Connection source = connectionFactory.getSourceConnection())
+		{
+			for (UploadWorker victim : victims)
+			{
+				UploadWorker tail = victim.splitTail(source, paginator, minimumRecordCount, reserveRangeIndex());
+				if (tail != null)
+				{
+					log.fine(tableSpec + ": Stole " + tail.getEstimatedUnreadRecordCount()
+							+ " estimated records from a busy worker");
+					register(tail);
+					return tail;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return The workers that are still reading, ordered by their estimated
+	 *         number of unread records, largest first
+	 */
+	private synchronized List<UploadWorker> getVictims(UploadWorker thief)
+	{
+		List<UploadWorker> victims = new ArrayList<>(workers.size());
+		for (Iterator<UploadWorker> iterator = workers.iterator(); iterator.hasNext();)
+		{
+			UploadWorker worker = iterator.next();
+			if (worker.isReadFinished())
+				iterator.remove();
+			else if (worker != thief)
+				victims.add(worker);
+		}
+		victims.sort(Comparator.comparingLong(UploadWorker::getEstimatedUnreadRecordCount).reversed());
+		return victims;
+	}
+
+	private synchronized int reserveRangeIndex()
+	{
+		return nextRangeIndex++;
+	}
+
+}
@@ -0,0 +1,119 @@
+package nl.topicus.spanner.converter.ddl;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.Operation;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.SpannerException;
+import nl.topicus.jdbc.shaded.com.google.spanner.admin.database.v1.UpdateDatabaseDdlMetadata;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+import nl.topicus.spanner.converter.util.CloudSpannerClients;
+import nl.topicus.spanner.converter.util.ConverterUtils;
+
+/**
+ * Collects DDL statements and executes them in the order in which they were
+ * added. On Cloud Spanner each executed DDL statement is a separate schema
+ * update that can take tens of seconds, so the statements are submitted in
+ * batches of {@link ConverterConfiguration#getDdlBatchSize()} statements per
+ * schema update instead. Cloud Spanner applies the statements of a batch in
+ * order, and a batch is only submitted when the previous batch has finished,
+ * so a statement may depend on any statement that was added before it, such
+ * as a CREATE TABLE that follows a DROP TABLE of the same table.
+ *
+ * Other destination databases execute the statements one by one.
+ */
+final class DdlExecutor
+{
+	private static final Logger log = Logger.getLogger(DdlExecutor.class.getName());
+
+	private static final long POLL_INTERVAL_MILLIS = 5000L;
+
+	private final Connection destination;
+
+	private final ConverterConfiguration config;
+
+	private final List<String> statements = new ArrayList<>();
+
+	DdlExecutor(Connection destination, ConverterConfiguration config)
+	{
+		this.destination = destination;
+		this.config = config;
+	}
+
+	void add(String statement)
+	{
+		statements.add(statement);
+	}
+
+	/**
+	 * Executes the statements that have been added, and waits until they have
+	 * all been applied
+	 */
+	void execute() throws SQLException, IOException
+	{
+		if (statements.isEmpty())
+			return;
+		if (config.getDestinationDatabaseType() == DatabaseType.CloudSpanner)
+			executeBatches();
+		else
+			executeOneByOne();
+		statements.clear();
+	}
+
+	private void executeOneByOne() throws SQLException
+	{
+		try (Statement statement = destination.createStatement())
+		{
+			for (String sql : statements)
+				statement.executeUpdate(sql);
+		}
+	}
+
+	private void executeBatches() throws SQLException, IOException
+	{
+		CloudSpannerClients clients = CloudSpannerClients.get(config.getUrlDestination());
+		List<List<String>> batches = ConverterUtils.partition(statements, Math.max(config.getDdlBatchSize(), 1));
+		int batchNumber = 0;
+		for (List<String> batch : batches)
+		{
+			batchNumber++;
+			String description = "DDL batch " + batchNumber + " of " + batches.size();
+			log.info("Submitting " + description + " (" + batch.size() + " statements)");
+			long startTime = System.currentTimeMillis();
+			try
+			{
+				Operation<Void, UpdateDatabaseDdlMetadata> operation = clients
+						.updateDatabaseDdl(new ArrayList<>(batch));
+				while (!operation.isDone())
+				{
+					Thread.sleep(POLL_INTERVAL_MILLIS);
+					operation = operation.reload();
+					UpdateDatabaseDdlMetadata metadata = operation.getMetadata();
+					if (metadata != null)
+						log.info(description + ": " + metadata.getCommitTimestampsCount() + " of " + batch.size()
+								+ " statements applied");
+				}
+				operation.getResult();
+			}
+			catch (SpannerException e)
+			{
+				throw new SQLException(description + " failed: " + e.getMessage(), e);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException("Interrupted while waiting for " + description, e);
+			}
+			log.info(description + " applied in "
+					+ TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - startTime) + " seconds");
+		}
+	}
+
+}
@@ -1,7 +1,7 @@
 package nl.topicus.spanner.converter.ddl;
 
+import java.io.IOException;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.HashSet;
 import java.util.Set;
@@ -9,144 +9,130 @@ import java.util.logging.Logger;
 
 import nl.topicus.spanner.converter.ConvertMode;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaCatalog.IndexMetadata;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
 
 public class IndexConverter
 {
 	private static final Logger log = Logger.getLogger(IndexConverter.class.getName());
 
-	private final Connection source;
+	private final DdlExecutor ddlExecutor;
 
-	private final Connection destination;
+	private final SchemaCatalog sourceCatalog;
 
-	private final Set<String> existingIndices = new HashSet<>();
+	private final SchemaCatalog destinationCatalog;
 
-	private final Set<String> primaryKeys = new HashSet<>();
+	private final Set<String> existingIndices = new HashSet<>();
 
 	private final ConverterConfiguration config;
 
-	public IndexConverter(Connection source, Connection destination, ConverterConfiguration config)
+	/**
+	 * @param destination
+	 *            The connection to create the indices on
+	 * @param config
+	 *            The configuration of the conversion
+	 * @param sourceCatalog
+	 *            The schema catalog of the source database
+	 * @param destinationCatalog
+	 *            The schema catalog of the destination database after the
+	 *            tables have been converted
+	 */
+	public IndexConverter(Connection destination, ConverterConfiguration config, SchemaCatalog sourceCatalog,
+			SchemaCatalog destinationCatalog)
 	{
-		this.source = source;
-		this.destination = destination;
+		this.ddlExecutor = new DdlExecutor(destination, config);
+		this.sourceCatalog = sourceCatalog;
+		this.destinationCatalog = destinationCatalog;
 		this.config = config;
 	}
 
-	private void initializeExistingIndices(String catalog, String schema) throws SQLException
+	private void initializeExistingIndices()
 	{
 		existingIndices.clear();
-		try (ResultSet tables = destination.getMetaData().getTables(catalog, schema, null, new String[] { "TABLE" }))
+		for (TableMetadata table : destinationCatalog.getTables())
 		{
-			while (tables.next())
+			for (IndexMetadata index : table.getIndexes())
 			{
-				String tableSchema = tables.getString("TABLE_SCHEM");
-				if (!config.getDestinationDatabaseType().isSystemSchema(tableSchema))
-				{
-					String table = tables.getString("TABLE_NAME");
-					try (ResultSet indices = destination.getMetaData().getIndexInfo(catalog, schema, table, false,
-							true))
-					{
-						while (indices.next())
-						{
-							existingIndices.add(indices.getString("INDEX_NAME").toUpperCase());
-						}
-					}
-				}
+				existingIndices.add(index.getName().toUpperCase());
 			}
 		}
 	}
 
-	private void initializePrimaryKeys(String catalog, String schema) throws SQLException
+	/**
+	 * Drops the existing indices that {@link #convert(boolean)} would drop and
+	 * create again, without creating them. This is used when the indices are
+	 * created after the data has been copied, so that the copied records do
+	 * not also have to be written to these indices.
+	 */
+	public void dropExistingIndices() throws SQLException, IOException
 	{
-		primaryKeys.clear();
-		try (ResultSet tables = source.getMetaData().getTables(catalog, schema, null, new String[] { "TABLE" }))
+		initializeExistingIndices();
+		ConvertMode createMode = config.getTableConvertMode();
+		for (TableMetadata table : sourceCatalog.getTables())
 		{
-			while (tables.next())
+			for (IndexMetadata index : table.getSecondaryIndexes())
 			{
-				String tableSchema = tables.getString("TABLE_SCHEM");
-				if (!config.getSourceDatabaseType().isSystemSchema(tableSchema))
+				String indexName = index.getName();
+				if (!existingIndices.contains(indexName.toUpperCase()))
+					continue;
+				if (createMode == ConvertMode.ThrowExceptionIfExists)
+					throw new IllegalStateException("Index " + indexName + " already exists");
+				if (createMode == ConvertMode.DropAndRecreate)
 				{
-					String table = tables.getString("TABLE_NAME");
-					try (ResultSet pks = source.getMetaData().getPrimaryKeys(catalog, tableSchema, table))
-					{
-						while (pks.next())
-						{
-							primaryKeys.add(pks.getString("PK_NAME").toUpperCase());
-						}
-					}
+					log.info("Index " + indexName + " already exists. Dropping index until the data has been copied");
+					dropIndex(indexName);
 				}
 			}
 		}
+		ddlExecutor.execute();
 	}
 
-	public String convert(boolean create) throws SQLException
+	public String convert(boolean create) throws SQLException, IOException
 	{
 		StringBuilder sql = new StringBuilder();
-		initializeExistingIndices(config.getCatalog(), config.getSchema());
-		initializePrimaryKeys(config.getCatalog(), config.getSchema());
-		try (ResultSet tbls = source.getMetaData().getTables(config.getCatalog(), config.getSchema(), null,
-				new String[] { "TABLE" }))
+		initializeExistingIndices();
+		for (TableMetadata table : sourceCatalog.getTables())
 		{
-			while (tbls.next())
+			// The primary key is created together with the table
+			for (IndexMetadata index : table.getSecondaryIndexes())
 			{
-				String tableSchema = tbls.getString("TABLE_SCHEM");
-				if (!config.getSourceDatabaseType().isSystemSchema(tableSchema))
+				String indexName = index.getName();
+				boolean exists = existingIndices.contains(indexName.toUpperCase());
+				if (exists && config.getTableConvertMode() == ConvertMode.DropAndRecreate)
+				{
+					log.info("Index " + indexName + " already exists. Dropping index");
+					dropIndex(indexName);
+				}
+				String definition = getIndexDefinition(table, index, exists);
+				if (definition != null)
 				{
-					String table = tbls.getString("TABLE_NAME");
-					try (ResultSet indices = source.getMetaData().getIndexInfo(config.getCatalog(), tableSchema, table,
-							false, true))
+					sql.append(definition).append("\n;\n\n");
+					sql.append("/*---------------------------------------------------------------------*/\n");
+					if (create)
 					{
-						while (indices.next())
-						{
-							String indexName = indices.getString("INDEX_NAME");
-							// Skip all primary keys
-							if (!primaryKeys.contains(indexName.toUpperCase()))
-							{
-								boolean exists = existingIndices
-										.contains(indices.getString("INDEX_NAME").toUpperCase());
-								if (exists && config.getTableConvertMode() == ConvertMode.DropAndRecreate)
-								{
-									log.info("Index " + indices.getString("INDEX_NAME")
-											+ " already exists. Dropping index");
-									dropIndex(indices.getString("INDEX_NAME"));
-									log.info(indices.getString("INDEX_NAME") + " dropped");
-								}
-								String definition = getIndexDefinition(indices, exists);
-								if (definition != null)
-								{
-									sql.append(definition).append("\n;\n\n");
-									sql.append(
-											"/*---------------------------------------------------------------------*/\n");
-									if (create)
-									{
-										log.info("Creating index " + indexName);
-										destination.createStatement().executeUpdate(definition);
-									}
-									else
-									{
-										log.info("Index definition created: " + indexName);
-									}
-								}
-								else
-								{
-									log.info("Skipping index " + indexName);
-								}
-							}
-							while (!indices.isAfterLast() && indexName.equals(indices.getString("INDEX_NAME")))
-							{
-								indices.next();
-							}
-						}
+						log.info("Creating index " + indexName);
+						ddlExecutor.add(definition);
 					}
+					else
+					{
+						log.info("Index definition created: " + indexName);
+					}
+				}
+				else
+				{
+					log.info("Skipping index " + indexName);
 				}
 			}
 		}
+		ddlExecutor.execute();
 		return sql.toString();
 	}
 
-	private String getIndexDefinition(ResultSet indices, boolean exists) throws SQLException
+	private String getIndexDefinition(TableMetadata table, IndexMetadata index, boolean exists)
 	{
-		String table = indices.getString("TABLE_NAME");
-		String indexName = indices.getString("INDEX_NAME");
+		String indexName = index.getName();
 		ConvertMode createMode = config.getTableConvertMode();
 		if (exists)
 		{
@@ -155,34 +141,28 @@ public class IndexConverter
 			if (createMode == ConvertMode.ThrowExceptionIfExists)
 				throw new IllegalStateException("Index " + indexName + " already exists");
 		}
-		StringBuilder sql = new StringBuilder("CREATE INDEX ").append(indexName).append(" ON ").append(table)
-				.append(" (\n");
-		boolean first = true;
-		while (true)
+		StringBuilder sql = new StringBuilder("CREATE INDEX ").append(indexName).append(" ON ")
+				.append(table.getName()).append(" (\n");
+		for (int column = 0; column < index.getColumns().size(); column++)
 		{
-			String currentName = indices.getString("INDEX_NAME");
-			if (!indexName.equals(currentName))
-				break;
-			if (!first)
+			if (column > 0)
 			{
 				sql.append(",\n");
 			}
-			sql.append(indices.getString("COLUMN_NAME")).append(" ");
-			String ascOrDesc = indices.getString("ASC_OR_DESC");
-			if ("D".equals(ascOrDesc))
+			sql.append(index.getColumns().get(column)).append(" ");
+			if (index.isDescending(column))
 				sql.append("DESC ");
-			first = false;
-			if (!indices.next())
-				break;
 		}
 		sql.append(")");
+		if (!index.getStoringColumns().isEmpty() && config.getDestinationDatabaseType() == DatabaseType.CloudSpanner)
+			sql.append(" STORING (").append(String.join(", ", index.getStoringColumns())).append(")");
 		return sql.toString();
 	}
 
-	private void dropIndex(String index) throws SQLException
+	private void dropIndex(String index)
 	{
 		String sql = "DROP INDEX " + index;
-		destination.createStatement().executeUpdate(sql);
+		ddlExecutor.add(sql);
 	}
 
 }
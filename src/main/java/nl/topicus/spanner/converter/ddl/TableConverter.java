@@ -1,8 +1,8 @@
 package nl.topicus.spanner.converter.ddl;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.HashMap;
@@ -14,6 +14,9 @@ import java.util.logging.Logger;
 import nl.topicus.spanner.converter.ConvertMode;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+import nl.topicus.spanner.converter.util.SchemaCatalog;
+import nl.topicus.spanner.converter.util.SchemaCatalog.ColumnMetadata;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
 
 public class TableConverter
 {
@@ -21,9 +24,11 @@ public class TableConverter
 
 	private final Map<Integer, String> columnTypes = new HashMap<>();
 
-	private final Connection source;
+	private final DdlExecutor ddlExecutor;
 
-	private final Connection destination;
+	private final SchemaCatalog sourceCatalog;
+
+	private final SchemaCatalog destinationCatalog;
 
 	private final Set<String> existingTables = new HashSet<>();
 
@@ -39,10 +44,23 @@ public class TableConverter
 
 	private int maxSizeColumn = 1000000;
 
-	public TableConverter(Connection source, Connection destination, ConverterConfiguration config)
+	/**
+	 * @param destination
+	 *            The connection to create the tables on
+	 * @param config
+	 *            The configuration of the conversion
+	 * @param sourceCatalog
+	 *            The schema catalog of the source database
+	 * @param destinationCatalog
+	 *            The schema catalog of the destination database before the
+	 *            conversion
+	 */
+	public TableConverter(Connection destination, ConverterConfiguration config, SchemaCatalog sourceCatalog,
+			SchemaCatalog destinationCatalog)
 	{
-		this.source = source;
-		this.destination = destination;
+		this.ddlExecutor = new DdlExecutor(destination, config);
+		this.sourceCatalog = sourceCatalog;
+		this.destinationCatalog = destinationCatalog;
 		this.config = config;
 		registerDefaultColumnTypes();
 		registerConfiguredColumnMappings();
@@ -128,71 +146,55 @@ public class TableConverter
 		specificColumnMapping.put(column, dataType);
 	}
 
-	private void initializeExistingTables(String catalog, String schema) throws SQLException
+	private void initializeExistingTables()
 	{
 		existingTables.clear();
-		try (ResultSet tables = destination.getMetaData().getTables(catalog, schema, null, new String[] { "TABLE" }))
+		for (TableMetadata table : destinationCatalog.getTables())
 		{
-			while (tables.next())
-			{
-				String tableSchema = tables.getString("TABLE_SCHEM");
-				if (!config.getDestinationDatabaseType().isSystemSchema(tableSchema))
-				{
-					existingTables.add(tables.getString("TABLE_NAME").toUpperCase());
-				}
-			}
+			existingTables.add(table.getName().toUpperCase());
 		}
 	}
 
-	public String convert(boolean create) throws SQLException
+	public String convert(boolean create) throws SQLException, IOException
 	{
 		StringBuilder sql = new StringBuilder();
-		initializeExistingTables(config.getCatalog(), config.getSchema());
-		try (ResultSet tables = source.getMetaData().getTables(config.getCatalog(), config.getSchema(), null,
-				new String[] { "TABLE" }))
+		initializeExistingTables();
+		for (TableMetadata table : sourceCatalog.getTables())
 		{
-			while (tables.next())
+			String tableName = table.getName();
+			boolean exists = existingTables.contains(tableName.toUpperCase());
+			if (exists && config.getTableConvertMode() == ConvertMode.DropAndRecreate)
 			{
-				String tableSchema = tables.getString("TABLE_SCHEM");
-				if (!config.getSourceDatabaseType().isSystemSchema(tableSchema))
+				log.info("Table " + tableName + " already exists. Dropping table");
+				dropTable(tableName);
+			}
+			String definition = getTableDefinition(table, exists);
+			if (definition != null)
+			{
+				sql.append(definition).append("\n;\n\n");
+				sql.append("/*---------------------------------------------------------------------*/\n");
+				if (create)
+				{
+					log.info("Creating table " + tableName);
+					ddlExecutor.add(definition);
+				}
+				else
 				{
-					boolean exists = existingTables.contains(tables.getString("TABLE_NAME").toUpperCase());
-					if (exists && config.getTableConvertMode() == ConvertMode.DropAndRecreate)
-					{
-						log.info("Table " + tables.getString("TABLE_NAME") + " already exists. Dropping table");
-						dropTable(tables.getString("TABLE_NAME"));
-						log.info(tables.getString("TABLE_NAME") + " dropped");
-					}
-					String definition = getTableDefinition(tables, exists);
-					if (definition != null)
-					{
-						sql.append(definition).append("\n;\n\n");
-						sql.append("/*---------------------------------------------------------------------*/\n");
-						if (create)
-						{
-							log.info("Creating table " + tables.getString("TABLE_NAME"));
-							destination.createStatement().executeUpdate(definition);
-						}
-						else
-						{
-							log.info("Table definition created: " + tables.getString("TABLE_NAME"));
-						}
-					}
-					else
-					{
-						log.info("Skipping table " + tables.getString("TABLE_NAME"));
-					}
+					log.info("Table definition created: " + tableName);
 				}
 			}
+			else
+			{
+				log.info("Skipping table " + tableName);
+			}
 		}
+		ddlExecutor.execute();
 		return sql.toString();
 	}
 
-	private String getTableDefinition(ResultSet tables, boolean exists) throws SQLException
+	private String getTableDefinition(TableMetadata tableMetadata, boolean exists)
 	{
-		String catalog = tables.getString("TABLE_CAT");
-		String schema = tables.getString("TABLE_SCHEM");
-		String table = tables.getString("TABLE_NAME");
+		String table = tableMetadata.getName();
 		ConvertMode createMode = config.getTableConvertMode();
 		if (exists)
 		{
@@ -202,44 +204,26 @@ public class TableConverter
 				throw new IllegalStateException("Table " + table + " already exists");
 		}
 		StringBuilder sql = new StringBuilder("CREATE TABLE ").append(table).append(" (\n");
-		try (ResultSet columns = source.getMetaData().getColumns(catalog, schema, table, null))
+		boolean first = true;
+		for (ColumnMetadata column : tableMetadata.getColumns())
 		{
-			boolean first = true;
-			while (columns.next())
+			if (!first)
 			{
-				if (!first)
-				{
-					sql.append(",\n");
-				}
-				sql.append(columns.getString("COLUMN_NAME")).append(" ");
-				sql.append(getColumnDataType(columns)).append(" ");
-				sql.append(getNotNull(columns));
-				first = false;
+				sql.append(",\n");
 			}
+			sql.append(column.getName()).append(" ");
+			sql.append(getColumnDataType(table, column)).append(" ");
+			sql.append(getNotNull(column));
+			first = false;
 		}
 		if (!config.isPrimaryKeyDefinitionInsideColumnList())
 			sql.append(")");
-		boolean hasKey = false;
-		try (ResultSet keys = source.getMetaData().getPrimaryKeys(catalog, schema, table))
+		boolean hasKey = !tableMetadata.getPrimaryKeyColumns().isEmpty();
+		if (hasKey)
 		{
-			StringBuilder pk = new StringBuilder();
 			if (config.isPrimaryKeyDefinitionInsideColumnList())
-				pk.append(", ");
-			pk.append(" PRIMARY KEY (");
-			boolean first = true;
-			while (keys.next())
-			{
-				hasKey = true;
-				if (!first)
-				{
-					pk.append(", ");
-				}
-				pk.append(keys.getString("COLUMN_NAME"));
-				first = false;
-			}
-			pk.append(")");
-			if (hasKey)
-				sql.append(pk);
+				sql.append(", ");
+			sql.append(" PRIMARY KEY (").append(String.join(", ", tableMetadata.getPrimaryKeyColumns())).append(")");
 		}
 		if (config.isPrimaryKeyDefinitionInsideColumnList())
 			sql.append(")");
@@ -251,18 +235,17 @@ public class TableConverter
 		return sql.toString();
 	}
 
-	private String getColumnDataType(ResultSet columns) throws SQLException
+	private String getColumnDataType(String tableName, ColumnMetadata column)
 	{
-		String columnName = columns.getString("COLUMN_NAME");
-		String tableName = columns.getString("TABLE_NAME");
+		String columnName = column.getName();
 		String specificMapping = specificColumnMapping.get(tableName + "." + columnName);
 		if (specificMapping == null)
 			specificMapping = specificColumnMapping.get(columnName);
 		if (specificMapping != null)
 			return specificMapping;
 
-		int type = columns.getInt("DATA_TYPE");
-		int size = columns.getInt("COLUMN_SIZE");
+		int type = column.getDataType();
+		int size = column.getColumnSize();
 		String cloudSpannerType = columnTypes.get(Integer.valueOf(type));
 		if (cloudSpannerType == null)
 			throw new IllegalArgumentException("No mapping found for SQL type " + type);
@@ -276,9 +259,9 @@ public class TableConverter
 		return cloudSpannerType;
 	}
 
-	private String getNotNull(ResultSet columns) throws SQLException
+	private String getNotNull(ColumnMetadata column)
 	{
-		int nullable = columns.getInt("NULLABLE");
+		int nullable = column.getNullable();
 		if (nullable == DatabaseMetaData.columnNoNulls)
 			return "NOT NULL";
 		return "";
@@ -294,10 +277,10 @@ public class TableConverter
 		return defaultSizeOther;
 	}
 
-	private void dropTable(String table) throws SQLException
+	private void dropTable(String table)
 	{
 		String sql = "DROP TABLE " + table;
-		destination.createStatement().executeUpdate(sql);
+		ddlExecutor.add(sql);
 	}
 
 }
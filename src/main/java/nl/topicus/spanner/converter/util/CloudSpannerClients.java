@@ -0,0 +1,140 @@
+package nl.topicus.spanner.converter.util;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import nl.topicus.jdbc.shaded.com.google.auth.oauth2.GoogleCredentials;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.DatabaseClient;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.DatabaseId;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.Operation;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.Spanner;
+import nl.topicus.jdbc.shaded.com.google.cloud.spanner.SpannerOptions;
+import nl.topicus.jdbc.shaded.com.google.spanner.admin.database.v1.UpdateDatabaseDdlMetadata;
+
+/**
+ * Gives access to the Cloud Spanner client library that is shaded into the
+ * JDBC driver, for operations that cannot be executed efficiently through
+ * JDBC. One client is created per JDBC URL and shared by all workers, as
+ * creating a client is expensive.
+ */
+public class CloudSpannerClients
+{
+	private static final Map<String, CloudSpannerClients> CLIENTS = new ConcurrentHashMap<>();
+
+	private final Spanner spanner;
+
+	private final DatabaseId databaseId;
+
+	private CloudSpannerClients(String url) throws IOException
+	{
+		Map<String, String> properties = parseUrl(url);
+		String project = getRequiredProperty(url, properties, "Project");
+		String instance = getRequiredProperty(url, properties, "Instance");
+		String database = getRequiredProperty(url, properties, "Database");
+		GoogleCredentials credentials;
+		String keyFile = properties.get("PVTKEYPATH");
+		if (keyFile != null)
+		{
+			try (InputStream key = new FileInputStream(keyFile))
+			{
+				credentials = GoogleCredentials.fromStream(key);
+			}
+		}
+		else
+		{
+			credentials = GoogleCredentials.getApplicationDefault();
+		}
+		spanner = SpannerOptions.newBuilder().setProjectId(project).setCredentials(credentials).build().getService();
+		databaseId = DatabaseId.of(project, instance, database);
+	}
+
+	/**
+	 * @param url
+	 *            The JDBC URL of a Cloud Spanner database
+	 * @return The clients for the database of the given URL
+	 */
+	public static CloudSpannerClients get(String url) throws IOException
+	{
+		CloudSpannerClients clients = CLIENTS.get(url);
+		if (clients == null)
+		{
+			synchronized (CLIENTS)
+			{
+				clients = CLIENTS.get(url);
+				if (clients == null)
+				{
+					clients = new CloudSpannerClients(url);
+					CLIENTS.put(url, clients);
+				}
+			}
+		}
+		return clients;
+	}
+
+	/**
+	 * Closes all clients that have been created
+	 */
+	public static void closeAll()
+	{
+		synchronized (CLIENTS)
+		{
+			for (CloudSpannerClients clients : CLIENTS.values())
+				clients.spanner.close();
+			CLIENTS.clear();
+		}
+	}
+
+	public DatabaseClient getDatabaseClient()
+	{
+		return spanner.getDatabaseClient(databaseId);
+	}
+
+	public DatabaseId getDatabaseId()
+	{
+		return databaseId;
+	}
+
+	/**
+	 * Starts one schema update with the given DDL statements. Cloud Spanner
+	 * executes the statements in the given order.
+	 *
+	 * @return The long-running operation of the schema update
+	 */
+	public Operation<Void, UpdateDatabaseDdlMetadata> updateDatabaseDdl(List<String> statements)
+	{
+		return spanner.getDatabaseAdminClient().updateDatabaseDdl(databaseId.getInstanceId().getInstance(),
+				databaseId.getDatabase(), statements, null);
+	}
+
+	/**
+	 * Parses the properties of a URL of the form
+	 * jdbc:cloudspanner://host;Project=...;Instance=...;Database=... The keys
+	 * of the returned map are in upper case.
+	 */
+	private static Map<String, String> parseUrl(String url)
+	{
+		Map<String, String> res = new HashMap<>();
+		String[] parts = url.split(";");
+		for (int i = 1; i < parts.length; i++)
+		{
+			int index = parts[i].indexOf('=');
+			if (index > 0)
+				res.put(parts[i].substring(0, index).trim().toUpperCase(), parts[i].substring(index + 1).trim());
+		}
+		return res;
+	}
+
+	private static String getRequiredProperty(String url, Map<String, String> properties, String name)
+	{
+		String value = properties.get(name.toUpperCase());
+		if (value == null || "".equals(value))
+			throw new IllegalArgumentException("No " + name + " found in URL " + url);
+		return value;
+	}
+
+}
@@ -1,19 +1,34 @@
 package nl.topicus.spanner.converter.util;
 
+import java.math.BigDecimal;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.AbstractList;
 import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
 
 import nl.topicus.jdbc.shaded.com.google.cloud.ByteArray;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
 import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
 import nl.topicus.spanner.converter.data.Columns;
+import nl.topicus.spanner.converter.util.SchemaCatalog.ColumnMetadata;
+import nl.topicus.spanner.converter.util.SchemaCatalog.IndexMetadata;
+import nl.topicus.spanner.converter.util.SchemaCatalog.TableMetadata;
 
 public class ConverterUtils
 {
+	private static final Logger log = Logger.getLogger(ConverterUtils.class.getName());
+
+	/**
+	 * The minimum number of records per batch for Cloud Spanner destinations,
+	 * both for the initial batch size and for the adapted batch size
+	 */
+	public static final int MIN_BATCH_SIZE = 100;
+
 	private final ConverterConfiguration config;
 
 	public ConverterUtils(ConverterConfiguration config)
@@ -21,8 +36,7 @@ public class ConverterUtils
 		this.config = config;
 	}
 
-	public int calculateActualBatchSize(int numberOfCols, Connection destination, String catalog, String schema,
-			String table) throws SQLException
+	public int calculateActualBatchSize(int numberOfCols, TableMetadata table)
 	{
 		int actualBatchSize = config.getBatchSize();
 		if (config.getDestinationDatabaseType() == DatabaseType.CloudSpanner)
@@ -30,126 +44,262 @@ public class ConverterUtils
 			// Calculate number of rows in a batch based on the row size
 			// Batch size is given as MiB when the destination is CloudSpanner
 			// The maximum number of mutations per commit is 20,000
-			int rowSize = getRowSize(destination, catalog, schema, table);
-			int indices = getNumberOfIndices(destination, catalog, schema, table);
-			actualBatchSize = Math.max(Math.min(config.getBatchSize() / rowSize, 20000 / (numberOfCols + indices)),
-					100);
+			int rowSize = getRowSize(table);
+			int mutations = getMutationsPerRecord(numberOfCols, table);
+			actualBatchSize = Math.max(Math.min(config.getBatchSize() / rowSize,
+					config.getMaxMutationsPerCommit() / mutations), MIN_BATCH_SIZE);
 		}
 		return actualBatchSize;
 	}
 
-	public int getRowSize(Connection destination, String catalog, String schema, String table) throws SQLException
+	/**
+	 * @return The number of mutations that inserting one record into the given
+	 *         table will cost in Cloud Spanner
+	 */
+	public int getMutationsPerRecord(int numberOfCols, TableMetadata table)
+	{
+		int mutations = numberOfCols;
+		for (IndexMetadata index : table.getSecondaryIndexes())
+			mutations += index.getColumns().size() + index.getStoringColumns().size();
+		return mutations;
+	}
+
+	public int getRowSize(TableMetadata table)
 	{
 		if (config.getDestinationDatabaseType() == DatabaseType.CloudSpanner)
-			return getEstimatedRowSizeInCloudSpanner(destination, catalog, schema, table, null);
+			return getEstimatedRowSizeInCloudSpanner(table);
 		return -1;
 	}
 
-	public int getNumberOfIndices(Connection destination, String catalog, String schema, String table)
-			throws SQLException
+	/**
+	 * @return The number of secondary indices of the table
+	 */
+	public int getNumberOfIndices(TableMetadata table)
 	{
-		int count = 0;
-		try (ResultSet indices = destination.getMetaData().getIndexInfo(catalog, schema, table, false, false))
-		{
-			while (indices.next())
-				count++;
-		}
-		return count;
+		return table.getSecondaryIndexes().size();
 	}
 
 	/**
-	 * @param connection
-	 *            The connection to use to estimate the row size
-	 * @param catalog
-	 *            The catalog of the table
-	 * @param schemaPattern
-	 *            The schema of the table
-	 * @param tableNamePattern
-	 *            The name of the table
-	 * @param columnNamePattern
-	 *            The name of the column(s) to check
-	 * @return The estimated size in bytes of one row of the specified columns
-	 *         of the specified table
+	 * @param table
+	 *            The table to estimate the row size of
+	 * @return The estimated size in bytes of one row of the specified table
 	 */
-	public int getEstimatedRowSizeInCloudSpanner(Connection connection, String catalog, String schemaPattern,
-			String tableNamePattern, String columnNamePattern) throws SQLException
+	public int getEstimatedRowSizeInCloudSpanner(TableMetadata table)
 	{
 		// There's an 8 bytes storage overhead for each column
 		int totalSize = 8;
-		try (ResultSet rs = connection.getMetaData().getColumns(catalog, schemaPattern, tableNamePattern,
-				columnNamePattern))
+		for (ColumnMetadata column : table.getColumns())
 		{
-			while (rs.next())
+			long colLength = column.getColumnSize();
+			int colType = column.getDataType();
+			switch (colType)
 			{
-				long colLength = rs.getLong("COLUMN_SIZE");
-				int colType = rs.getInt("DATA_TYPE");
-				switch (colType)
-				{
-				case Types.ARRAY:
-					break;
-				case Types.BOOLEAN:
-					totalSize += 1;
-					break;
-				case Types.BINARY:
-					totalSize += colLength;
-					break;
-				case Types.DATE:
-					totalSize += 4;
-					break;
-				case Types.DOUBLE:
-					totalSize += 8;
-					break;
-				case Types.BIGINT:
-					totalSize += 8;
-					break;
-				case Types.NVARCHAR:
-					totalSize += colLength * 2;
-					break;
-				case Types.TIMESTAMP:
-					totalSize += 12;
-					break;
-				}
+			case Types.ARRAY:
+				break;
+			case Types.BOOLEAN:
+				totalSize += 1;
+				break;
+			case Types.BINARY:
+				totalSize += colLength;
+				break;
+			case Types.DATE:
+				totalSize += 4;
+				break;
+			case Types.DOUBLE:
+				totalSize += 8;
+				break;
+			case Types.BIGINT:
+				totalSize += 8;
+				break;
+			case Types.NVARCHAR:
+				totalSize += colLength * 2;
+				break;
+			case Types.TIMESTAMP:
+				totalSize += 12;
+				break;
 			}
 		}
 		return totalSize;
 	}
 
+	/**
+	 * @return The number of bytes that the given value takes in a record. Null
+	 *         values are not counted. Strings are counted by the length of their
+	 *         UTF-8 encoding, which is the encoding that both Cloud Spanner and
+	 *         PostgreSQL store them in. Arrays are counted as the sum of the
+	 *         sizes of their elements.
+	 */
 	public int getActualDataSize(int colType, Object data)
 	{
-		int size = 0;
+		if (data == null)
+			return 0;
 		switch (colType)
 		{
-		case Types.ARRAY:
-			break;
 		case Types.BOOLEAN:
-			size = 1;
-			break;
-		case Types.BINARY:
-			if (data != null && byte[].class.equals(data.getClass()))
-				size = ((byte[]) data).length;
-			else if (data != null && ByteArray.class.equals(data))
-				size = ((ByteArray) data).length();
-			break;
+		case Types.BIT:
+		case Types.TINYINT:
+			return 1;
+		case Types.SMALLINT:
+			return 2;
+		case Types.INTEGER:
 		case Types.DATE:
-			size = 4;
-			break;
-		case Types.DOUBLE:
-			size = 8;
-			break;
+		case Types.REAL:
+			return 4;
 		case Types.BIGINT:
-			size = 8;
-			break;
-		case Types.NVARCHAR:
-			if (data != null && String.class.equals(data.getClass()))
-				size = ((String) data).getBytes().length;
-			break;
+		case Types.DOUBLE:
+		case Types.FLOAT:
+			return 8;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			// A header and two bytes for each group of four decimal digits
+			if (data instanceof BigDecimal)
+				return 8 + (((BigDecimal) data).precision() + 3) / 4 * 2;
+			return 8;
 		case Types.TIMESTAMP:
-			size = 12;
-			break;
+		case Types.TIME:
+			return 12;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+		case Types.BLOB:
+			if (data instanceof byte[])
+				return ((byte[]) data).length;
+			if (data instanceof ByteArray)
+				return ((ByteArray) data).length();
+			if (data instanceof UUID)
+				return 16;
+			return 0;
+		case Types.CHAR:
+		case Types.NCHAR:
+		case Types.VARCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			if (data instanceof String)
+				return getUtf8Length((String) data);
+			return 0;
+		case Types.ARRAY:
+			return getArraySize(data);
+		default:
+			return 0;
+		}
+	}
+
+	private int getArraySize(Object data)
+	{
+		if (data instanceof java.sql.Array)
+		{
+			java.sql.Array array = (java.sql.Array) data;
+			try
+			{
+				return getElementsSize(array.getBaseType(), array.getArray());
+			}
+			catch (SQLException e)
+			{
+				log.fine("Could not read array to determine its size: " + e.getMessage());
+				return 0;
+			}
+		}
+		if (data.getClass().isArray())
+			return getElementsSize(Types.NULL, data);
+		return 0;
+	}
+
+	/**
+	 * @param elementType
+	 *            The type of the elements, or {@link Types#NULL} if the type of
+	 *            each element must be determined from its class
+	 * @param elements
+	 *            A Java array of elements. Nested arrays are counted as the
+	 *            sub-arrays of a multidimensional array.
+	 */
+	private int getElementsSize(int elementType, Object elements)
+	{
+		int size = 0;
+		int length = java.lang.reflect.Array.getLength(elements);
+		for (int index = 0; index < length; index++)
+		{
+			Object element = java.lang.reflect.Array.get(elements, index);
+			if (element == null)
+				continue;
+			if (element.getClass().isArray() && !(element instanceof byte[]))
+				size += getElementsSize(elementType, element);
+			else
+				size += getActualDataSize(elementType == Types.NULL ? getType(element) : elementType, element);
 		}
 		return size;
 	}
 
+	/**
+	 * @return The SQL type of a value, as used by
+	 *         {@link #getActualDataSize(int, Object)}
+	 */
+	private static int getType(Object value)
+	{
+		if (value instanceof String)
+			return Types.VARCHAR;
+		if (value instanceof byte[] || value instanceof ByteArray || value instanceof UUID)
+			return Types.BINARY;
+		if (value instanceof Boolean)
+			return Types.BOOLEAN;
+		if (value instanceof Byte)
+			return Types.TINYINT;
+		if (value instanceof Short)
+			return Types.SMALLINT;
+		if (value instanceof Integer)
+			return Types.INTEGER;
+		if (value instanceof Long)
+			return Types.BIGINT;
+		if (value instanceof Float)
+			return Types.REAL;
+		if (value instanceof Double)
+			return Types.DOUBLE;
+		if (value instanceof BigDecimal)
+			return Types.NUMERIC;
+		if (value instanceof java.sql.Date)
+			return Types.DATE;
+		if (value instanceof java.util.Date)
+			return Types.TIMESTAMP;
+		return Types.OTHER;
+	}
+
+	/**
+	 * Computes the length of the UTF-8 encoding of a string without encoding
+	 * it. Characters below U+0080 take one byte, characters below U+0800 two
+	 * bytes, surrogate pairs four bytes and all other characters three bytes.
+	 * An unpaired surrogate is counted as the one byte replacement character
+	 * '?' that {@link String#getBytes(java.nio.charset.Charset)} writes for it.
+	 */
+	public static int getUtf8Length(CharSequence value)
+	{
+		int length = value.length();
+		int res = length;
+		for (int index = 0; index < length; index++)
+		{
+			char c = value.charAt(index);
+			if (c < 0x80)
+				continue;
+			if (c < 0x800)
+			{
+				res++;
+			}
+			else if (Character.isHighSurrogate(c) && index + 1 < length
+					&& Character.isLowSurrogate(value.charAt(index + 1)))
+			{
+				// Two chars that are encoded as four bytes together
+				res += 2;
+				index++;
+			}
+			else if (!Character.isSurrogate(c))
+			{
+				res += 2;
+			}
+		}
+		return res;
+	}
+
 	public String getTableSpec(String catalog, String schema, String table)
 	{
 		String tableSpec = "";
@@ -162,28 +312,22 @@ public class ConverterUtils
 		return tableSpec;
 	}
 
-	public Columns getColumns(Connection destination, String catalog, String schema, String table, boolean forSelect)
-			throws SQLException
+	public Columns getColumns(TableMetadata table, boolean forSelect)
 	{
 		Columns res = new Columns();
-		try (ResultSet columns = destination.getMetaData().getColumns(catalog, schema, table, null))
+		String tableName = table.getName();
+		for (ColumnMetadata column : table.getColumns())
 		{
-			while (columns.next())
-			{
-				// When doing a select and a column is named the same as the
-				// table, Cloud Spanner will misinterpret the query. In those
-				// cases, the column name will be prefixed by the table name
-				res.addColumn(forSelect && columns.getString("COLUMN_NAME").equalsIgnoreCase(table)
-						? table + "." + columns.getString("COLUMN_NAME") : columns.getString("COLUMN_NAME"));
-				res.addColumnType(columns.getInt("DATA_TYPE"));
-			}
+			// When doing a select and a column is named the same as the
+			// table, Cloud Spanner will misinterpret the query. In those
+			// cases, the column name will be prefixed by the table name
+			res.addColumn(forSelect && column.getName().equalsIgnoreCase(tableName)
+					? tableName + "." + column.getName() : column.getName());
+			res.addColumnType(column.getDataType());
 		}
-		try (ResultSet keys = destination.getMetaData().getPrimaryKeys(catalog, schema, table))
+		for (String key : table.getPrimaryKeyColumns())
 		{
-			while (keys.next())
-			{
-				res.addPrimaryKeyColumn(keys.getString("COLUMN_NAME"));
-			}
+			res.addPrimaryKeyColumn(key);
 		}
 		return res;
 	}
@@ -198,6 +342,32 @@ public class ConverterUtils
 		return 0;
 	}
 
+	/**
+	 * @return The average number of bytes of one record of the given source
+	 *         table according to the statistics of the source database, or -1
+	 *         if no statistics are available
+	 */
+	public long getSourceBytesPerRecord(Connection source, String tableSpec)
+	{
+		if (config.getSourceDatabaseType() != DatabaseType.PostgreSQL)
+			return -1L;
+		String sql = "SELECT pg_table_size(c.oid) / NULLIF(c.reltuples, 0) FROM pg_class c WHERE c.oid = CAST(? AS regclass)";
+		try (PreparedStatement statement = source.prepareStatement(sql))
+		{
+			statement.setString(1, tableSpec);
+			try (ResultSet rs = statement.executeQuery())
+			{
+				if (rs.next() && rs.getObject(1) != null && rs.getDouble(1) > 0d)
+					return Math.max(Math.round(rs.getDouble(1)), 1L);
+			}
+		}
+		catch (SQLException e)
+		{
+			log.fine("Could not get table statistics of " + tableSpec + ": " + e.getMessage());
+		}
+		return -1L;
+	}
+
 	public long getDestinationRecordCount(Connection destination, String table) throws SQLException
 	{
 		String sql = "select count(*) from " + table;
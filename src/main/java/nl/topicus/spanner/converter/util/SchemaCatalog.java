@@ -0,0 +1,515 @@
+package nl.topicus.spanner.converter.util;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+
+/**
+ * An immutable snapshot of the tables, columns, primary keys and indexes of one
+ * database. The catalog is loaded with one metadata query per kind for all
+ * tables together, instead of one query per table and kind, and can be shared
+ * by all components that need the schema. The catalog is serializable, so that
+ * it can be stored in a {@link SchemaSnapshot}.
+ *
+ * Not all JDBC drivers support a null table name for
+ * {@link DatabaseMetaData#getPrimaryKeys(String, String, String)} and
+ * {@link DatabaseMetaData#getIndexInfo(String, String, String, boolean, boolean)}.
+ * If such a catalog-wide query fails or returns nothing, the primary keys or
+ * indexes are loaded per table instead.
+ */
+public final class SchemaCatalog implements Serializable
+{
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger log = Logger.getLogger(SchemaCatalog.class.getName());
+
+	public static final class ColumnMetadata implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+
+		private final int dataType;
+
+		private final int columnSize;
+
+		private final int nullable;
+
+		private ColumnMetadata(String name, int dataType, int columnSize, int nullable)
+		{
+			this.name = name;
+			this.dataType = dataType;
+			this.columnSize = columnSize;
+			this.nullable = nullable;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return The SQL type from {@link java.sql.Types}
+		 */
+		public int getDataType()
+		{
+			return dataType;
+		}
+
+		public int getColumnSize()
+		{
+			return columnSize;
+		}
+
+		/**
+		 * @return One of the nullability constants of {@link DatabaseMetaData}
+		 */
+		public int getNullable()
+		{
+			return nullable;
+		}
+	}
+
+	public static final class IndexMetadata implements Serializable
+	{
+		private static final long serialVersionUID = 2L;
+
+		private final String name;
+
+		private final boolean unique;
+
+		private final List<String> columns;
+
+		private final List<Boolean> descending;
+
+		private final List<String> storingColumns;
+
+		private IndexMetadata(String name, boolean unique, List<String> columns, List<Boolean> descending,
+				List<String> storingColumns)
+		{
+			this.name = name;
+			this.unique = unique;
+			this.columns = Collections.unmodifiableList(columns);
+			this.descending = Collections.unmodifiableList(descending);
+			this.storingColumns = Collections.unmodifiableList(storingColumns);
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public boolean isUnique()
+		{
+			return unique;
+		}
+
+		/**
+		 * @return The key columns of the index in key order
+		 */
+		public List<String> getColumns()
+		{
+			return columns;
+		}
+
+		/**
+		 * @return The columns that are stored in the index without being part
+		 *         of its key (STORING columns on Cloud Spanner). These are
+		 *         reported by getIndexInfo with ordinal position 0 or null.
+		 */
+		public List<String> getStoringColumns()
+		{
+			return storingColumns;
+		}
+
+		/**
+		 * @return true if the column at the given position in the index is
+		 *         sorted in descending order
+		 */
+		public boolean isDescending(int index)
+		{
+			return descending.get(index).booleanValue();
+		}
+	}
+
+	public static final class TableMetadata implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String catalog;
+
+		private final String schema;
+
+		private final String name;
+
+		private final List<ColumnMetadata> columns;
+
+		private final String primaryKeyName;
+
+		private final List<String> primaryKeyColumns;
+
+		private final List<IndexMetadata> indexes;
+
+		private TableMetadata(TableBuilder builder)
+		{
+			this.catalog = builder.catalog;
+			this.schema = builder.schema;
+			this.name = builder.name;
+			this.columns = Collections.unmodifiableList(new ArrayList<>(builder.columns));
+			this.primaryKeyName = builder.primaryKeyName;
+			this.primaryKeyColumns = Collections.unmodifiableList(new ArrayList<>(builder.primaryKeyColumns.values()));
+			List<IndexMetadata> indexList = new ArrayList<>(builder.indexes.size());
+			for (IndexBuilder index : builder.indexes.values())
+				indexList.add(new IndexMetadata(index.name, index.unique, index.columns, index.descending,
+						index.storingColumns));
+			this.indexes = Collections.unmodifiableList(indexList);
+		}
+
+		public String getCatalog()
+		{
+			return catalog;
+		}
+
+		public String getSchema()
+		{
+			return schema;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		/**
+		 * @return The columns of the table in the order of their ordinal
+		 *         position
+		 */
+		public List<ColumnMetadata> getColumns()
+		{
+			return columns;
+		}
+
+		/**
+		 * @return The name of the primary key constraint, or null if the table
+		 *         has no primary key or the database does not name it
+		 */
+		public String getPrimaryKeyName()
+		{
+			return primaryKeyName;
+		}
+
+		/**
+		 * @return The primary key columns in key order
+		 */
+		public List<String> getPrimaryKeyColumns()
+		{
+			return primaryKeyColumns;
+		}
+
+		/**
+		 * @return The indexes of the table as reported by the database. The
+		 *         index that backs the primary key is included if the database
+		 *         reports it.
+		 */
+		public List<IndexMetadata> getIndexes()
+		{
+			return indexes;
+		}
+
+		/**
+		 * @return The indexes of the table without the index that backs the
+		 *         primary key. That index is recognized by the name of the
+		 *         primary key, or as a unique index on exactly the primary key
+		 *         columns if the database does not name the primary key.
+		 */
+		public List<IndexMetadata> getSecondaryIndexes()
+		{
+			List<IndexMetadata> res = new ArrayList<>(indexes.size());
+			for (IndexMetadata index : indexes)
+			{
+				if (index.getName().equalsIgnoreCase(primaryKeyName))
+					continue;
+				if (primaryKeyName == null && index.isUnique() && index.getColumns().equals(primaryKeyColumns))
+					continue;
+				res.add(index);
+			}
+			return res;
+		}
+	}
+
+	private static final class TableBuilder
+	{
+		private final String catalog;
+
+		private final String schema;
+
+		private final String name;
+
+		private final List<ColumnMetadata> columns = new ArrayList<>();
+
+		private String primaryKeyName;
+
+		/**
+		 * The primary key columns by their KEY_SEQ
+		 */
+		private final Map<Integer, String> primaryKeyColumns = new TreeMap<>();
+
+		private final Map<String, IndexBuilder> indexes = new LinkedHashMap<>();
+
+		private TableBuilder(String catalog, String schema, String name)
+		{
+			this.catalog = catalog;
+			this.schema = schema;
+			this.name = name;
+		}
+	}
+
+	private static final class IndexBuilder
+	{
+		private final String name;
+
+		private final boolean unique;
+
+		private final List<String> columns = new ArrayList<>();
+
+		private final List<Boolean> descending = new ArrayList<>();
+
+		private final List<String> storingColumns = new ArrayList<>();
+
+		private IndexBuilder(String name, boolean unique)
+		{
+			this.name = name;
+			this.unique = unique;
+		}
+	}
+
+	private final List<TableMetadata> tableList;
+
+	private final Map<String, TableMetadata> tables;
+
+	private final Map<String, TableMetadata> tablesByUpperCaseName;
+
+	private SchemaCatalog(List<TableMetadata> tableList)
+	{
+		Map<String, TableMetadata> byName = new LinkedHashMap<>();
+		Map<String, TableMetadata> byUpperCaseName = new LinkedHashMap<>();
+		for (TableMetadata table : tableList)
+		{
+			byName.putIfAbsent(table.getName(), table);
+			byUpperCaseName.putIfAbsent(table.getName().toUpperCase(), table);
+		}
+		this.tableList = Collections.unmodifiableList(tableList);
+		this.tables = Collections.unmodifiableMap(byName);
+		this.tablesByUpperCaseName = Collections.unmodifiableMap(byUpperCaseName);
+	}
+
+	/**
+	 * Loads the catalog of all user tables in the given catalog and schema.
+	 * Tables in system schemas of the database are skipped.
+	 */
+	public static SchemaCatalog load(Connection connection, String catalog, String schema,
+			DatabaseType databaseType) throws SQLException
+	{
+		long startTime = System.currentTimeMillis();
+		DatabaseMetaData metaData = connection.getMetaData();
+		Map<String, TableBuilder> builders = new LinkedHashMap<>();
+		try (ResultSet rs = metaData.getTables(catalog, schema, null, new String[] { "TABLE" }))
+		{
+			while (rs.next())
+			{
+				String tableSchema = rs.getString("TABLE_SCHEM");
+				if (!databaseType.isSystemSchema(tableSchema))
+				{
+					String name = rs.getString("TABLE_NAME");
+					builders.put(key(tableSchema, name),
+							new TableBuilder(rs.getString("TABLE_CAT"), tableSchema, name));
+				}
+			}
+		}
+		if (!builders.isEmpty())
+		{
+			loadColumns(metaData, catalog, schema, builders);
+			loadPrimaryKeys(metaData, catalog, schema, builders);
+			loadIndexes(metaData, catalog, schema, builders);
+		}
+		List<TableMetadata> tableList = new ArrayList<>(builders.size());
+		for (TableBuilder builder : builders.values())
+			tableList.add(new TableMetadata(builder));
+		log.info("Loaded schema catalog of " + tableList.size() + " tables in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+		return new SchemaCatalog(tableList);
+	}
+
+	private static String key(String schema, String table)
+	{
+		return schema + "." + table;
+	}
+
+	private static void loadColumns(DatabaseMetaData metaData, String catalog, String schema,
+			Map<String, TableBuilder> builders) throws SQLException
+	{
+		try (ResultSet rs = metaData.getColumns(catalog, schema, null, null))
+		{
+			while (rs.next())
+			{
+				TableBuilder table = builders.get(key(rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")));
+				if (table != null)
+					table.columns.add(new ColumnMetadata(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"),
+							rs.getInt("COLUMN_SIZE"), rs.getInt("NULLABLE")));
+			}
+		}
+	}
+
+	private static void loadPrimaryKeys(DatabaseMetaData metaData, String catalog, String schema,
+			Map<String, TableBuilder> builders) throws SQLException
+	{
+		try (ResultSet rs = metaData.getPrimaryKeys(catalog, schema, null))
+		{
+			if (addPrimaryKeys(rs, builders, null))
+				return;
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			log.fine("Could not load the primary keys of all tables at once: " + e.getMessage());
+		}
+		for (TableBuilder table : builders.values())
+		{
+			table.primaryKeyColumns.clear();
+			try (ResultSet rs = metaData.getPrimaryKeys(table.catalog, table.schema, table.name))
+			{
+				addPrimaryKeys(rs, builders, table);
+			}
+		}
+	}
+
+	/**
+	 * @param only
+	 *            The table to add the primary key columns to, or null to add
+	 *            them to the table of each row
+	 * @return true if at least one primary key column was found
+	 */
+	private static boolean addPrimaryKeys(ResultSet rs, Map<String, TableBuilder> builders, TableBuilder only)
+			throws SQLException
+	{
+		boolean found = false;
+		while (rs.next())
+		{
+			TableBuilder table = only;
+			if (table == null)
+				table = builders.get(key(rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")));
+			if (table != null)
+			{
+				table.primaryKeyName = rs.getString("PK_NAME");
+				table.primaryKeyColumns.put(Integer.valueOf(rs.getInt("KEY_SEQ")), rs.getString("COLUMN_NAME"));
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	private static void loadIndexes(DatabaseMetaData metaData, String catalog, String schema,
+			Map<String, TableBuilder> builders) throws SQLException
+	{
+		try (ResultSet rs = metaData.getIndexInfo(catalog, schema, null, false, true))
+		{
+			if (addIndexes(rs, builders, null))
+				return;
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			log.fine("Could not load the indexes of all tables at once: " + e.getMessage());
+		}
+		for (TableBuilder table : builders.values())
+		{
+			table.indexes.clear();
+			try (ResultSet rs = metaData.getIndexInfo(table.catalog, table.schema, table.name, false, true))
+			{
+				addIndexes(rs, builders, table);
+			}
+		}
+	}
+
+	/**
+	 * @param only
+	 *            The table to add the index columns to, or null to add them to
+	 *            the table of each row
+	 * @return true if at least one index column was found
+	 */
+	private static boolean addIndexes(ResultSet rs, Map<String, TableBuilder> builders, TableBuilder only)
+			throws SQLException
+	{
+		boolean found = false;
+		while (rs.next())
+		{
+			String indexName = rs.getString("INDEX_NAME");
+			// Skip the table statistics rows that some drivers return
+			if (indexName == null || rs.getShort("TYPE") == DatabaseMetaData.tableIndexStatistic)
+				continue;
+			TableBuilder table = only;
+			if (table == null)
+				table = builders.get(key(rs.getString("TABLE_SCHEM"), rs.getString("TABLE_NAME")));
+			if (table != null)
+			{
+				IndexBuilder index = table.indexes.get(indexName);
+				if (index == null)
+				{
+					index = new IndexBuilder(indexName, !rs.getBoolean("NON_UNIQUE"));
+					table.indexes.put(indexName, index);
+				}
+				if (rs.getShort("ORDINAL_POSITION") == 0)
+				{
+					index.storingColumns.add(rs.getString("COLUMN_NAME"));
+				}
+				else
+				{
+					index.columns.add(rs.getString("COLUMN_NAME"));
+					index.descending.add(Boolean.valueOf("D".equals(rs.getString("ASC_OR_DESC"))));
+				}
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * @return All tables in the catalog, in the order in which the database
+	 *         reported them
+	 */
+	public List<TableMetadata> getTables()
+	{
+		return tableList;
+	}
+
+	/**
+	 * @return The table with the given name. If there is no table with exactly
+	 *         this name, the name is matched case-insensitively.
+	 * @throws IllegalArgumentException
+	 *             If the catalog does not contain the table
+	 */
+	public TableMetadata getTable(String name)
+	{
+		TableMetadata res = tables.get(name);
+		if (res == null)
+			res = tablesByUpperCaseName.get(name.toUpperCase());
+		if (res == null)
+			throw new IllegalArgumentException("Table " + name + " not found in schema catalog");
+		return res;
+	}
+
+	public boolean containsTable(String name)
+	{
+		return tables.containsKey(name) || tablesByUpperCaseName.containsKey(name.toUpperCase());
+	}
+
+}
@@ -0,0 +1,249 @@
+package nl.topicus.spanner.converter.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration;
+import nl.topicus.spanner.converter.cfg.ConverterConfiguration.DatabaseType;
+
+/**
+ * Stores the schema catalogs and table statistics of earlier runs in a local
+ * file, so that repeated runs against the same schema do not have to discover
+ * the schema again. Each database is stored together with a fingerprint of its
+ * schema, which is computed with one cheap query (see
+ * {@link DatabaseType#getSchemaFingerprintQuery(String)}). A stored catalog is
+ * only used if the fingerprint of the database has not changed. Otherwise the
+ * schema is discovered again and the stored entry is replaced.
+ *
+ * The table statistics are estimates that are only used to plan the copy, and
+ * are kept as long as the schema does not change. Exact record counts are not
+ * stored.
+ *
+ * If no snapshot file is configured, the schema is discovered in each run and
+ * nothing is stored.
+ */
+public final class SchemaSnapshot
+{
+	private static final Logger log = Logger.getLogger(SchemaSnapshot.class.getName());
+
+	private static final class Entry implements Serializable
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final String fingerprint;
+
+		private SchemaCatalog catalog;
+
+		private final ConcurrentHashMap<String, Long> statistics = new ConcurrentHashMap<>();
+
+		private Entry(String fingerprint)
+		{
+			this.fingerprint = fingerprint;
+		}
+	}
+
+	/**
+	 * The snapshot file, or null if no snapshot is stored
+	 */
+	private final Path file;
+
+	/**
+	 * The stored entries by a hash of the URL, catalog and schema of the
+	 * database. The key is hashed to keep credentials in the URL out of the
+	 * file.
+	 */
+	private final HashMap<String, Entry> entries;
+
+	private SchemaSnapshot(Path file, HashMap<String, Entry> entries)
+	{
+		this.file = file;
+		this.entries = entries;
+	}
+
+	/**
+	 * Opens the snapshot file that is configured, or returns a snapshot that
+	 * stores nothing if no file is configured. A snapshot file that cannot be
+	 * read is ignored.
+	 */
+	public static SchemaSnapshot open(ConverterConfiguration config)
+	{
+		if (config.getSchemaSnapshotFile() == null)
+			return new SchemaSnapshot(null, new HashMap<>());
+		Path file = Paths.get(config.getSchemaSnapshotFile());
+		HashMap<String, Entry> entries = new HashMap<>();
+		if (Files.exists(file))
+		{
+			try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file))))
+			{
+				@SuppressWarnings("unchecked")
+				HashMap<String, Entry> stored = (HashMap<String, Entry>) in.readObject();
+				entries = stored;
+			}
+			catch (IOException | ClassNotFoundException | ClassCastException e)
+			{
+				log.warning("Ignoring unreadable schema snapshot " + file + ": " + e.getMessage());
+			}
+		}
+		return new SchemaSnapshot(file, entries);
+	}
+
+	/**
+	 * @return The schema catalog of the given database. The stored catalog is
+	 *         returned if the schema of the database has not changed since it
+	 *         was stored. Otherwise the schema is discovered and stored.
+	 */
+	public SchemaCatalog getCatalog(Connection connection, String url, DatabaseType databaseType, String catalog,
+			String schema) throws SQLException
+	{
+		if (file == null)
+			return SchemaCatalog.load(connection, catalog, schema, databaseType);
+		Entry entry = getEntry(connection, url, databaseType, catalog, schema);
+		synchronized (this)
+		{
+			if (entry != null && entry.catalog != null)
+			{
+				log.info("Using stored schema catalog of " + entry.catalog.getTables().size() + " tables from "
+						+ file);
+				return entry.catalog;
+			}
+		}
+		SchemaCatalog res = SchemaCatalog.load(connection, catalog, schema, databaseType);
+		if (entry != null)
+		{
+			synchronized (this)
+			{
+				entry.catalog = res;
+			}
+			save();
+		}
+		return res;
+	}
+
+	/**
+	 * @return The stored statistics of the tables of the given database by
+	 *         table. The returned map may be updated concurrently, and the
+	 *         updates are stored by {@link #save()}. The statistics are
+	 *         discarded when the schema of the database changes.
+	 */
+	public Map<String, Long> getStatistics(Connection connection, String url, DatabaseType databaseType,
+			String catalog, String schema)
+	{
+		Entry entry = file == null ? null : getEntry(connection, url, databaseType, catalog, schema);
+		return entry == null ? new ConcurrentHashMap<>() : entry.statistics;
+	}
+
+	/**
+	 * @return The entry of the given database with the current fingerprint of
+	 *         its schema, or null if the fingerprint cannot be computed. A new,
+	 *         empty entry replaces the stored entry if the fingerprint has
+	 *         changed.
+	 */
+	private Entry getEntry(Connection connection, String url, DatabaseType databaseType, String catalog,
+			String schema)
+	{
+		String fingerprint;
+		try
+		{
+			fingerprint = getFingerprint(connection, databaseType, schema);
+		}
+		catch (SQLException e)
+		{
+			log.warning("Could not compute the schema fingerprint of the " + databaseType + " database: "
+					+ e.getMessage());
+			return null;
+		}
+		if (fingerprint == null)
+			return null;
+		String key = getKey(url, catalog, schema);
+		synchronized (this)
+		{
+			Entry entry = entries.get(key);
+			if (entry == null || !entry.fingerprint.equals(fingerprint))
+			{
+				if (entry != null)
+					log.info("The schema of the " + databaseType + " database has changed since " + file
+							+ " was written");
+				entry = new Entry(fingerprint);
+				entries.put(key, entry);
+			}
+			return entry;
+		}
+	}
+
+	private static String getFingerprint(Connection connection, DatabaseType databaseType, String schema)
+			throws SQLException
+	{
+		try (Statement statement = connection.createStatement();
+				ResultSet rs = statement.executeQuery(databaseType.getSchemaFingerprintQuery(schema)))
+		{
+			if (rs.next())
+				return rs.getString(1);
+		}
+		finally
+		{
+			if (!connection.getAutoCommit())
+				connection.commit();
+		}
+		return null;
+	}
+
+	private static String getKey(String url, String catalog, String schema)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest((url + "\n" + catalog + "\n" + schema).getBytes(StandardCharsets.UTF_8));
+			StringBuilder res = new StringBuilder(hash.length * 2);
+			for (byte b : hash)
+				res.append(String.format("%02x", b));
+			return res.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is not supported", e);
+		}
+	}
+
+	/**
+	 * Writes the snapshot to the snapshot file, if one is configured
+	 */
+	public synchronized void save()
+	{
+		if (file == null)
+			return;
+		Path tmp = Paths.get(file.toString() + ".tmp");
+		try
+		{
+			try (ObjectOutputStream out = new ObjectOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp))))
+			{
+				out.writeObject(entries);
+			}
+			Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			log.warning("Could not write schema snapshot " + file + ": " + e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,97 @@
+package nl.topicus.spanner.converter.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+
+import org.junit.Test;
+
+public class ConverterUtilsTest
+{
+
+	private static void assertUtf8Length(String value)
+	{
+		assertEquals(value, value.getBytes(StandardCharsets.UTF_8).length, ConverterUtils.getUtf8Length(value));
+	}
+
+	@Test
+	public void testUtf8LengthEmpty()
+	{
+		assertUtf8Length("");
+	}
+
+	@Test
+	public void testUtf8LengthAscii()
+	{
+		assertUtf8Length("a");
+		assertUtf8Length("Hello World");
+		assertUtf8Length("\u0000\u007f");
+	}
+
+	@Test
+	public void testUtf8LengthTwoByteCharacters()
+	{
+		assertUtf8Length("\u0080");
+		assertUtf8Length("\u07ff");
+		assertUtf8Length("Caf\u00e9 cr\u00e8me br\u00fbl\u00e9e");
+		assertUtf8Length("\u0417\u0434\u0440\u0430\u0432\u0441\u0442\u0432\u0443\u0439\u0442\u0435");
+	}
+
+	@Test
+	public void testUtf8LengthThreeByteCharacters()
+	{
+		assertUtf8Length("\u0800");
+		assertUtf8Length("\uffff");
+		assertUtf8Length("\u20ac 100");
+		assertUtf8Length("\u65e5\u672c\u8a9e");
+	}
+
+	@Test
+	public void testUtf8LengthSurrogatePairs()
+	{
+		assertUtf8Length("\ud83d\ude00");
+		assertUtf8Length("a\ud83d\ude00b\ud800\udc00\udbff\udfff");
+		assertUtf8Length("\ud83d\ude00\ud83d\ude00");
+	}
+
+	@Test
+	public void testUtf8LengthLoneSurrogates()
+	{
+		assertUtf8Length("\ud83d");
+		assertUtf8Length("\ude00");
+		assertUtf8Length("a\ud83db");
+		assertUtf8Length("a\ude00\ud83d");
+		assertUtf8Length("\ude00\ud83d\ude00");
+		assertUtf8Length("\ud83d\ud83d\ude00");
+		assertUtf8Length("abc\ud83d");
+	}
+
+	@Test
+	public void testUtf8LengthMixed()
+	{
+		assertUtf8Length("a\u00e9\u20ac\ud83d\ude00\ud83dz\u07ff\u0800");
+	}
+
+	@Test
+	public void testArrayDataSize()
+	{
+		ConverterUtils converterUtils = new ConverterUtils(null);
+		assertEquals(0, converterUtils.getActualDataSize(Types.ARRAY, new Object[0]));
+		assertEquals(24, converterUtils.getActualDataSize(Types.ARRAY, new Long[] { 1L, null, 2L, 3L }));
+		assertEquals(24, converterUtils.getActualDataSize(Types.ARRAY, new long[] { 1L, 2L, 3L }));
+		assertEquals(5, converterUtils.getActualDataSize(Types.ARRAY, new String[] { "ab", "\u00e9", null, "c" }));
+		assertEquals(16, converterUtils.getActualDataSize(Types.ARRAY, new Integer[][] { { 1, 2 }, { 3, 4 } }));
+		assertEquals(5, converterUtils.getActualDataSize(Types.ARRAY, new byte[][] { { 1, 2 }, { 3, 4, 5 } }));
+	}
+
+	@Test
+	public void testUtf8LengthAllCharacters()
+	{
+		StringBuilder value = new StringBuilder();
+		for (int c = 0; c <= Character.MAX_VALUE; c++)
+			value.append((char) c);
+		assertUtf8Length(value.toString());
+	}
+
+}
@@ -0,0 +1,83 @@
+package nl.topicus.spanner.converter.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Simple benchmark that compares
+ * {@link ConverterUtils#getUtf8Length(CharSequence)} with encoding the string
+ * using {@link String#getBytes(java.nio.charset.Charset)}. This is not a unit
+ * test, and is run by the benchmark profile after the unit tests:
+ *
+ * <pre>
+ * mvn -Pbenchmark test
+ * </pre>
+ *
+ * The length of the strings and the number of iterations can be passed as
+ * arguments with -Dexec.args="[length] [iterations]".
+ */
+public class Utf8LengthBenchmark
+{
+	private static final int WARMUP_ROUNDS = 5;
+
+	private static final int MEASURED_ROUNDS = 5;
+
+	/**
+	 * Prevents the JIT from removing the measured calls
+	 */
+	private static long sink;
+
+	public static void main(String[] args)
+	{
+		int length = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		Random random = new Random(42L);
+		benchmark("ASCII", createString(random, length, 0x7f), iterations);
+		benchmark("Latin-1", createString(random, length, 0xff), iterations);
+		benchmark("BMP", createString(random, length, 0xd7ff), iterations);
+		System.out.println("sink: " + sink);
+	}
+
+	private static String createString(Random random, int length, int maxChar)
+	{
+		StringBuilder res = new StringBuilder(length);
+		for (int index = 0; index < length; index++)
+			res.append((char) (0x20 + random.nextInt(maxChar - 0x20 + 1)));
+		return res.toString();
+	}
+
+	private static void benchmark(String name, String value, int iterations)
+	{
+		for (int round = 0; round < WARMUP_ROUNDS; round++)
+		{
+			runGetUtf8Length(value, iterations);
+			runGetBytes(value, iterations);
+		}
+		long utf8Length = Long.MAX_VALUE;
+		long getBytes = Long.MAX_VALUE;
+		for (int round = 0; round < MEASURED_ROUNDS; round++)
+		{
+			utf8Length = Math.min(utf8Length, runGetUtf8Length(value, iterations));
+			getBytes = Math.min(getBytes, runGetBytes(value, iterations));
+		}
+		System.out.println(String.format("%-8s getUtf8Length: %8.1f ns/op, getBytes: %8.1f ns/op", name,
+				(double) utf8Length / iterations, (double) getBytes / iterations));
+	}
+
+	private static long runGetUtf8Length(String value, int iterations)
+	{
+		long startTime = System.nanoTime();
+		for (int iteration = 0; iteration < iterations; iteration++)
+			sink += ConverterUtils.getUtf8Length(value);
+		return System.nanoTime() - startTime;
+	}
+
+	private static long runGetBytes(String value, int iterations)
+	{
+		long startTime = System.nanoTime();
+		for (int iteration = 0; iteration < iterations; iteration++)
+			sink += value.getBytes(StandardCharsets.UTF_8).length;
+		return System.nanoTime() - startTime;
+	}
+
+}